@@ -1,16 +1,45 @@
 package main.java;
 
 import main.java.address.Address;
+import main.java.index.BitmapIndex;
+import main.java.index.BucketIndex;
+import main.java.index.ColumnarSnapshot;
+import main.java.index.HashIndex;
+import main.java.index.PriceAggregate;
+import main.java.index.PriceSummary;
+import main.java.index.PropertyIdMap;
+import main.java.index.RangeIndex;
+import main.java.property.Amenity;
 import main.java.property.Commercial;
+import main.java.property.PriceChangeListener;
 import main.java.property.Property;
+import main.java.property.PropertyType;
 import main.java.property.Residence;
 import main.java.property.Retail;
+import main.java.query.AccessPath;
+import main.java.query.Page;
+import main.java.query.PageToken;
+import main.java.query.PropertyQuery;
+import main.java.query.QueryBatch;
+import main.java.query.QueryCache;
+import main.java.query.QueryPlan;
+import main.java.query.QueryPlanner;
+import main.java.query.TopK;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Set;
 import java.util.Map;
 import java.util.List;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Represents an agency which manages real estate properties. This class allows for adding, removing,
@@ -26,8 +55,40 @@ public class Agency
     private static final int MIN_CHARS_LENGTH = 1;
     private static final int MAX_CHARS_LENGTH = 30;
 
+    // Queries with at most this many candidates are paged or ranked from those candidates rather than by walking the price index
+    private static final int SMALL_PLAN_ROWS = 4096;
+    private static final Comparator<Property> PRICE_ORDER = Comparator.comparingDouble(Property::getPriceUsd)
+                                                                      .thenComparing(Property::getPropertyId);
+
     private final String name;
-    private final Map<String, Property> properties;
+    private final PropertyIdMap<Property> properties;
+    private final Map<String, Residence> residences;
+    private final Map<String, Commercial> commercials;
+    private final Map<String, Retail> retails;
+    private final Map<PropertyType, Map<String, ? extends Property>> partitions;
+    private final BitmapIndex<Residence> residenceAmenities;
+    private final BitmapIndex<Commercial> commercialAmenities;
+    private final BitmapIndex<Retail> retailAmenities;
+    private final Map<PropertyType, BitmapIndex<? extends Property>> amenityIndexes;
+    private final BucketIndex<Residence> bedroomIndex;
+    private final RangeIndex<Integer, Retail> squareFootageIndex;
+    private final RangeIndex<Double, Retail> pricePerSquareFootIndex;
+    private final PriceAggregate totals;
+    private final Map<PropertyType, PriceAggregate> typeTotals;
+    private final RangeIndex<Double, Property> priceIndex;
+    private final Map<PropertyType, RangeIndex<Double, Property>> typePriceIndexes;
+    private final HashIndex<Property> streetIndex;
+    private final HashIndex<Property> cityIndex;
+    private final PriceChangeListener priceChangeListener;
+
+    private final long[] typeModificationCounts;
+
+    private List<AgencyChangeListener> changeListeners;
+    private long modificationCount;
+    private QueryCache queryCache;
+
+    // Readers of a ConcurrentAgency may rebuild the snapshot in parallel, so it is published together with its count
+    private volatile ColumnarCache columnarCache;
 
     /**
      * Constructs a new Agency instance with a specified name.
@@ -36,6 +97,19 @@ public class Agency
      * @param name The name of the agency.
      */
     public Agency(final String name)
+    {
+        this(name, true);
+    }
+
+    /**
+     * Constructs a new Agency which may ignore price changes made directly on its properties.
+     * An agency whose properties are never repriced in place, because a new Property replaces the old
+     * one instead, need not register a listener on each of them.
+     *
+     * @param name The name of the agency.
+     * @param listenForPriceChanges true to keep the indexes in step with Property.setPriceUsd.
+     */
+    Agency(final String name, final boolean listenForPriceChanges)
     {
         if(name.length() < MIN_CHARS_LENGTH || name.length() > MAX_CHARS_LENGTH)
         {
@@ -43,12 +117,53 @@ public class Agency
         }
 
         this.name = name;
-        properties = new HashMap<>();
+        properties = new PropertyIdMap<>();
+        residences = new HashMap<>();
+        commercials = new HashMap<>();
+        retails = new HashMap<>();
+
+        partitions = new EnumMap<>(PropertyType.class);
+        partitions.put(PropertyType.RESIDENCE, residences);
+        partitions.put(PropertyType.COMMERCIAL, commercials);
+        partitions.put(PropertyType.RETAIL, retails);
+
+        residenceAmenities = new BitmapIndex<>(PropertyType.RESIDENCE);
+        commercialAmenities = new BitmapIndex<>(PropertyType.COMMERCIAL);
+        retailAmenities = new BitmapIndex<>(PropertyType.RETAIL);
+
+        amenityIndexes = new EnumMap<>(PropertyType.class);
+        amenityIndexes.put(PropertyType.RESIDENCE, residenceAmenities);
+        amenityIndexes.put(PropertyType.COMMERCIAL, commercialAmenities);
+        amenityIndexes.put(PropertyType.RETAIL, retailAmenities);
+
+        bedroomIndex = new BucketIndex<>();
+        squareFootageIndex = new RangeIndex<>();
+        pricePerSquareFootIndex = new RangeIndex<>();
+
+        totals = new PriceAggregate();
+        typeModificationCounts = new long[PropertyType.values().length];
+        typeTotals = new EnumMap<>(PropertyType.class);
+        for(final PropertyType type : PropertyType.values())
+        {
+            typeTotals.put(type, new PriceAggregate());
+        }
+
+        priceIndex = new RangeIndex<>();
+        typePriceIndexes = new EnumMap<>(PropertyType.class);
+        for(final PropertyType type : PropertyType.values())
+        {
+            typePriceIndexes.put(type, new RangeIndex<>());
+        }
+
+        streetIndex = new HashIndex<>();
+        cityIndex = new HashIndex<>();
+        priceChangeListener = listenForPriceChanges ? this::priceChanged : null;
     }
 
     /**
      * Adds a new Property to the agency's collection if the property is not null.
-     * The property is identified by its unique ID within the collection.
+     * The property is identified by its unique ID within the collection; a property
+     * already stored under the same ID is replaced.
      *
      * @param property The Property object to be added.
      */
@@ -56,7 +171,29 @@ public class Agency
     {
         if(property != null && property.getPropertyId() != null)
         {
-            properties.put(property.getPropertyId(), property);
+            final Property previous;
+
+            // The totals are the only step which can reject a price, so they are updated before anything is indexed
+            addToTotals(property);
+            previous = properties.put(property);
+
+            if(previous != null)
+            {
+                unindex(previous);
+                typeModificationCounts[previous.getType().ordinal()]++;
+            }
+
+            index(property);
+            modified(property);
+
+            if(changeListeners != null)
+            {
+                for(final AgencyChangeListener listener : changeListeners)
+                {
+                    listener.propertyAdded(property);
+                }
+                completeChange();
+            }
         }
     }
 
@@ -68,145 +205,357 @@ public class Agency
      */
     public void removeProperty(final String propertyId)
     {
-        properties.remove(propertyId);
+        final Property removed;
+        removed = properties.remove(propertyId);
+
+        if(removed != null)
+        {
+            unindex(removed);
+            modified(removed);
+
+            if(changeListeners != null)
+            {
+                for(final AgencyChangeListener listener : changeListeners)
+                {
+                    listener.propertyRemoved(removed);
+                }
+                completeChange();
+            }
+        }
     }
 
     /**
-     * Retrieves a Property from the agency's collection by its unique ID.
-     * If no Property with the specified ID exists, null is returned.
-     * @param propertyId The unique ID of the Property to retrieve.
-     * @return The Property object with the specified ID, or null if not found.
+     * Registers a listener to be notified after every change to the properties of the agency.
+     *
+     * @param listener the listener to register
+     * @throws NullPointerException if listener is null
      */
-    public Property getProperty(final String propertyId)
+    public void addChangeListener(final AgencyChangeListener listener)
     {
-        final Set<String> keys;
-        keys = properties.keySet();
+        if(listener == null)
+        {
+            throw new NullPointerException("Invalid listener: null");
+        }
 
-        for(final String key : keys)
+        if(changeListeners == null)
         {
-            if(propertyId.equals(key))
-            {
-                return properties.get(key);
-            }
+            // Copied on write, so that completeChange can run after a subclass has released its lock
+            changeListeners = new CopyOnWriteArrayList<>();
         }
+        changeListeners.add(listener);
+    }
 
-        return null;
+    /**
+     * Tells every listener that a change has been applied. ConcurrentAgency holds this back until it has
+     * released its write lock, so that listeners wait on slow work without blocking other threads.
+     */
+    void completeChange()
+    {
+        for(final AgencyChangeListener listener : changeListeners)
+        {
+            listener.changeCompleted();
+        }
     }
 
     /**
-     * Calculates the total value of all properties managed by the agency in USD.
+     * Unregisters a listener previously added with addChangeListener.
+     * If the listener is not registered, no action is taken.
      *
-     * @return The total value of all properties in USD as an integer.
+     * @param listener the listener to unregister
+     */
+    public void removeChangeListener(final AgencyChangeListener listener)
+    {
+        if(changeListeners != null)
+        {
+            changeListeners.remove(listener);
+        }
+    }
+
+    /*
+     * Adds the price of a property to the agency totals and to the totals of its type.
      */
-    public int getTotalPropertyValues()
+    private void addToTotals(final Property property)
     {
-        int totalPriceInUsd;
-        final Set<String> keys;
+        final PriceAggregate typeTotal;
+        typeTotal = typeTotals.get(property.getType());
 
-        totalPriceInUsd = 0;
-        keys = properties.keySet();
+        totals.add(property.getPriceUsd());
+        typeTotal.add(property.getPriceUsd());
+    }
 
-        for(final String key : keys)
+    /*
+     * Adds a property to its type partition and every secondary index, and starts listening for its price changes.
+     * The type is checked once here so that type-specific queries never need to. The caller has already added
+     * the property to the totals.
+     */
+    private void index(final Property property)
+    {
+        switch(property.getType())
         {
-            totalPriceInUsd += properties.get(key).getPriceUsd();
+            case RESIDENCE ->
+            {
+                final Residence residence;
+                residence = (Residence) property;
+                residences.put(residence.getPropertyId(), residence);
+                residenceAmenities.add(residence);
+                bedroomIndex.add(residence.getNumberOfBedrooms(), residence);
+            }
+            case COMMERCIAL ->
+            {
+                final Commercial commercial;
+                commercial = (Commercial) property;
+                commercials.put(commercial.getPropertyId(), commercial);
+                commercialAmenities.add(commercial);
+            }
+            case RETAIL ->
+            {
+                final Retail retail;
+                retail = (Retail) property;
+                retails.put(retail.getPropertyId(), retail);
+                retailAmenities.add(retail);
+                squareFootageIndex.add(retail.getSquareFootage(), retail);
+
+                // A retail space with no floor area has no price per square foot
+                if(retail.getSquareFootage() > 0)
+                {
+                    pricePerSquareFootIndex.add(retail.getPricePerSquareFoot(), retail);
+                }
+            }
         }
 
-        return totalPriceInUsd;
+        priceIndex.add(property.getPriceUsd(), property);
+        typePriceIndexes.get(property.getType()).add(property.getPriceUsd(), property);
+        streetIndex.add(property.getAddress().streetName(), property);
+        cityIndex.add(property.getAddress().city(), property);
+
+        if(priceChangeListener != null)
+        {
+            property.addPriceChangeListener(priceChangeListener);
+        }
     }
 
-    /**
-     * Finds all properties within the agency's collection that have a swimming pool.
-     *
-     * @return A List of Property objects that have a swimming pool.
+    /*
+     * Removes a property from its type partition and every secondary index, and stops listening for its price changes.
      */
-    public ArrayList<Residence> getPropertiesWithPools()
+    private void unindex(final Property property)
     {
-        final ArrayList<Residence> propertiesWithPools;
-        final Set<String> keys;
+        if(priceChangeListener != null)
+        {
+            property.removePriceChangeListener(priceChangeListener);
+        }
+        partitions.get(property.getType()).remove(property.getPropertyId(), property);
+        switch(property.getType())
+        {
+            case RESIDENCE ->
+            {
+                final Residence residence;
+                residence = (Residence) property;
+                residenceAmenities.remove(residence);
+                bedroomIndex.remove(residence.getNumberOfBedrooms(), residence);
+            }
+            case COMMERCIAL -> commercialAmenities.remove((Commercial) property);
+            case RETAIL ->
+            {
+                final Retail retail;
+                retail = (Retail) property;
+                retailAmenities.remove(retail);
+                squareFootageIndex.remove(retail.getSquareFootage(), retail);
+                pricePerSquareFootIndex.remove(retail.getPricePerSquareFoot(), retail);
+            }
+        }
+        priceIndex.remove(property.getPriceUsd(), property);
+        typePriceIndexes.get(property.getType()).remove(property.getPriceUsd(), property);
+        totals.remove(property.getPriceUsd());
+        typeTotals.get(property.getType()).remove(property.getPriceUsd());
+        streetIndex.remove(property.getAddress().streetName(), property);
+        cityIndex.remove(property.getAddress().city(), property);
+    }
 
-        propertiesWithPools = new ArrayList<>();
-        keys = properties.keySet();
+    /*
+     * Advances the mutation epochs of the agency and of the type of a property which was added, removed or repriced.
+     */
+    private void modified(final Property property)
+    {
+        modificationCount++;
+        typeModificationCounts[property.getType().ordinal()]++;
+    }
 
-        for(final String key : keys)
+    /*
+     * Keeps the price-ordered indexes in step with a property whose price was just changed.
+     * ConcurrentAgency overrides this to apply the change under its write lock.
+     */
+    void priceChanged(final Property property,
+                              final double oldPriceUsd,
+                              final double newPriceUsd)
+    {
+        if(properties.get(property.getPropertyId()) == property)
         {
-            if(properties.get(key).getType().equalsIgnoreCase("residence"))
+            totals.update(oldPriceUsd, newPriceUsd);
+            typeTotals.get(property.getType()).update(oldPriceUsd, newPriceUsd);
+            modified(property);
+            priceIndex.update(oldPriceUsd, newPriceUsd, property);
+            typePriceIndexes.get(property.getType()).update(oldPriceUsd, newPriceUsd, property);
+
+            if(property instanceof Retail retail && retail.getSquareFootage() > 0)
             {
-                final Residence residence;
-                residence = (Residence) properties.get(key);
-                if(residence.hasSwimmingPool())
+                pricePerSquareFootIndex.update(oldPriceUsd / retail.getSquareFootage(),
+                                               newPriceUsd / retail.getSquareFootage(),
+                                               retail);
+            }
+
+            if(changeListeners != null)
+            {
+                for(final AgencyChangeListener listener : changeListeners)
                 {
-                    propertiesWithPools.add(residence);
+                    listener.priceChanged(property, oldPriceUsd, newPriceUsd);
                 }
+                completeChange();
             }
         }
+    }
 
-        return propertiesWithPools;
+    /**
+     * Retrieves a Property from the agency's collection by its unique ID.
+     * If no Property with the specified ID exists, null is returned.
+     * @param propertyId The unique ID of the Property to retrieve.
+     * @return The Property object with the specified ID, or null if not found.
+     */
+    public Property getProperty(final String propertyId)
+    {
+        return properties.get(propertyId);
+    }
+
+    /**
+     * Retrieves every property managed by the agency.
+     *
+     * @return A read-only view of all properties, which reflects later changes to the agency.
+     */
+    public Collection<Property> getProperties()
+    {
+        return Collections.unmodifiableCollection(properties.values());
+    }
+
+    /**
+     * Calculates the total value of all properties managed by the agency in USD.
+     * The total is kept up to date as properties are added, removed and repriced, so this costs O(1).
+     *
+     * @return The exact total value of all properties in USD.
+     */
+    public BigDecimal getTotalPropertyValues()
+    {
+        return totals.getTotalUsd();
+    }
+
+    /**
+     * Retrieves the count, total, minimum and maximum price of all properties managed by the agency.
+     * The count and total are kept up to date as properties are added, removed and repriced, and the
+     * minimum and maximum are the ends of the price index, so this costs O(log n).
+     *
+     * @return A summary of the prices of all properties.
+     */
+    public PriceSummary getPriceSummary()
+    {
+        final Double minUsd;
+        final Double maxUsd;
+
+        minUsd = priceIndex.firstKey();
+        maxUsd = priceIndex.lastKey();
+
+        return totals.summary(minUsd == null ? Double.NaN : minUsd, maxUsd == null ? Double.NaN : maxUsd);
+    }
+
+    /**
+     * Retrieves the count, total, minimum and maximum price of all properties of a specific type.
+     * Each type has its own price index next to its totals, so this costs O(log n) as getPriceSummary() does.
+     *
+     * @param propertyType The type of property to summarize.
+     * @return A summary of the prices of the properties of the specified type.
+     */
+    public PriceSummary getPriceSummary(final PropertyType propertyType)
+    {
+        final RangeIndex<Double, Property> typePriceIndex;
+        final Double minUsd;
+        final Double maxUsd;
+
+        typePriceIndex = typePriceIndexes.get(propertyType);
+        minUsd = typePriceIndex.firstKey();
+        maxUsd = typePriceIndex.lastKey();
+
+        return typeTotals.get(propertyType).summary(minUsd == null ? Double.NaN : minUsd,
+                                                    maxUsd == null ? Double.NaN : maxUsd);
+    }
+
+    /**
+     * Finds all properties within the agency's collection that have a swimming pool.
+     *
+     * @return A List of Property objects that have a swimming pool.
+     */
+    public ArrayList<Residence> getPropertiesWithPools()
+    {
+        return residenceAmenities.selectAll(EnumSet.of(Amenity.SWIMMING_POOL), EnumSet.noneOf(Amenity.class));
     }
 
     /**
      * Retrieves properties whose price falls within a specified range, inclusive.
+     * The lookup is answered from a sorted price index in O(log n + k) time.
      *
      * @param minUsd The minimum price (inclusive) in USD.
      * @param maxUsd The maximum price (inclusive) in USD.
-     * @return An array of Property objects within the specified price range, or null if none found.
+     * @return An array of Property objects within the specified price range ordered by price, or null if none found.
      */
     public Property[] getPropertiesBetween(final double minUsd, final double maxUsd)
     {
-        final List<Property> matchedProperties;
-        final Set<String> keys;
-
-        matchedProperties = new ArrayList<>();
-        keys = properties.keySet();
-
-        for(final String key : keys)
-        {
-            final double price = properties.get(key).getPriceUsd();
-            if(price >= minUsd && price <= maxUsd)
-            {
-                matchedProperties.add(properties.get(key));
-            }
-        }
+        final Property[] matchedProperties;
+        matchedProperties = priceIndex.toArray(minUsd, maxUsd, Property[]::new);
 
-        if(matchedProperties.isEmpty())
+        if(matchedProperties.length == 0)
         {
             return null;
         }
-        else
-        {
-            final Property[] result;
-            result = new Property[matchedProperties.size()];
-
-            for(int i = 0; i < matchedProperties.size(); i++)
-            {
-                result[i] = matchedProperties.get(i);
-            }
 
-            return result;
-        }
+        return matchedProperties;
     }
 
     /**
-     * Finds properties located on a specific street.
+     * Finds properties located on a specific street, matching the street name exactly.
      *
      * @param streetName The name of the street.
      * @return A List of Address objects for properties on the specified street, or null if none found.
      */
     public ArrayList<Address> getPropertiesOn(final String streetName)
+    {
+        return getPropertiesOn(streetName, false);
+    }
+
+    /**
+     * Finds properties located on a specific street.
+     * The lookup is answered from a street name index in O(1 + k) time.
+     *
+     * @param streetName The name of the street.
+     * @param ignoreCase true to ignore case and surrounding whitespace when matching, false to match exactly.
+     * @return A List of Address objects for properties on the specified street, or null if none found or streetName is null.
+     */
+    public ArrayList<Address> getPropertiesOn(final String streetName,
+                                              final boolean ignoreCase)
     {
         final ArrayList<Address> propertiesAddress;
-        final Set<String> keys;
+
+        if(streetName == null)
+        {
+            return null;
+        }
 
         propertiesAddress = new ArrayList<>();
-        keys = properties.keySet();
 
-        for(final String key : keys)
+        for(final Property property : streetIndex.get(streetName))
         {
-            if(properties.get(key).getAddress().streetName().equals(streetName))
+            if(ignoreCase || property.getAddress().streetName().equals(streetName))
             {
-                propertiesAddress.add(properties.get(key).getAddress());
+                propertiesAddress.add(property.getAddress());
             }
         }
-        if(propertiesAddress.size() == 0)
+
+        if(propertiesAddress.isEmpty())
         {
             return null;
         }
@@ -215,35 +564,19 @@ public class Agency
 
     /**
      * Retrieves properties with a number of bedrooms within a specified range, inclusive.
+     * Residences are kept in one bucket per number of bedrooms, so only the buckets in the range are visited.
      *
      * @param minBedrooms The minimum number of bedrooms (inclusive).
      * @param maxBedrooms The maximum number of bedrooms (inclusive).
-     * @return A HashMap where keys are property IDs and values are Property objects meeting the bedroom criteria, or null if none found.
+     * @return A read-only Map view where keys are property IDs and values are Residence objects meeting the bedroom criteria, or null if none found.
      */
-    public HashMap<String, Residence> getPropertiesWithBedrooms(final int minBedrooms,
-                                                                final int maxBedrooms)
+    public Map<String, Residence> getPropertiesWithBedrooms(final int minBedrooms,
+                                                            final int maxBedrooms)
     {
-        final HashMap<String, Residence> propertiesWithBedrooms;
-        final Set<String> keys;
-
-        propertiesWithBedrooms = new HashMap<>();
-        keys = properties.keySet();
+        final Map<String, Residence> propertiesWithBedrooms;
+        propertiesWithBedrooms = bedroomIndex.range(minBedrooms, maxBedrooms);
 
-        for(final String key : keys)
-        {
-            if(properties.get(key).getType().equalsIgnoreCase("residence"))
-            {
-                final Residence residence;
-                residence = (Residence) properties.get(key);
-                if(residence.getNumberOfBedrooms() >= minBedrooms &&
-                   residence.getNumberOfBedrooms() <= maxBedrooms)
-                {
-                    propertiesWithBedrooms.put(key, residence);
-                }
-            }
-        }
-
-        if(propertiesWithBedrooms.size() == 0)
+        if(propertiesWithBedrooms.isEmpty())
         {
             return null;
         }
@@ -259,18 +592,26 @@ public class Agency
      */
     public ArrayList<Property> getPropertiesOfType(final String propertyType)
     {
-        final ArrayList<Property> propertiesOfTypeList;
-        propertiesOfTypeList = new ArrayList<>();
+        final PropertyType type;
+        type = PropertyType.fromLabel(propertyType);
 
-        for(final Property property : properties.values())
+        if(type == null)
         {
-            if(property.getType().equalsIgnoreCase(propertyType))
-            {
-                propertiesOfTypeList.add(property);
-            }
+            return new ArrayList<>();
         }
 
-        return propertiesOfTypeList;
+        return getPropertiesOfType(type);
+    }
+
+    /**
+     * Retrieves every property of a specific type. Only the partition holding that type is read.
+     *
+     * @param propertyType The type of property to search.
+     * @return An ArrayList of the properties of the specified type.
+     */
+    public ArrayList<Property> getPropertiesOfType(final PropertyType propertyType)
+    {
+        return new ArrayList<>(partitions.get(propertyType).values());
     }
 
     /**
@@ -308,26 +649,7 @@ public class Agency
      */
     public ArrayList<Commercial> getPropertiesWithLoadingDocks()
     {
-        final ArrayList<Commercial> propertiesWithLoadingDock;
-        final Set<String> keys;
-
-        propertiesWithLoadingDock = new ArrayList<>();
-        keys = properties.keySet();
-
-        for(final String key : keys)
-        {
-            if(properties.get(key).getType().equalsIgnoreCase("commercial"))
-            {
-                final Commercial commercial;
-                commercial = (Commercial) properties.get(key);
-                if(commercial.hasLoadingDock())
-                {
-                    propertiesWithLoadingDock.add(commercial);
-                }
-            }
-        }
-
-        return propertiesWithLoadingDock;
+        return commercialAmenities.selectAll(EnumSet.of(Amenity.LOADING_DOCK), EnumSet.noneOf(Amenity.class));
     }
 
     /**
@@ -337,26 +659,7 @@ public class Agency
      */
     public ArrayList<Commercial> getPropertiesWithHighwayAccess()
     {
-        final ArrayList<Commercial> propertiesWithHighwayAccess;
-        final Set<String> keys;
-
-        propertiesWithHighwayAccess = new ArrayList<>();
-        keys = properties.keySet();
-
-        for(final String key : keys)
-        {
-            if(properties.get(key).getType().equalsIgnoreCase("commercial"))
-            {
-                final Commercial commercial;
-                commercial = (Commercial) properties.get(key);
-                if(commercial.hasHighwayAccess())
-                {
-                    propertiesWithHighwayAccess.add(commercial);
-                }
-            }
-        }
-
-        return propertiesWithHighwayAccess;
+        return commercialAmenities.selectAll(EnumSet.of(Amenity.HIGHWAY_ACCESS), EnumSet.noneOf(Amenity.class));
     }
 
     /**
@@ -367,27 +670,52 @@ public class Agency
      */
     public ArrayList<Retail> getPropertiesSquareFootage(final int squareFootage)
     {
-        final ArrayList<Retail> propertiesWithSquareFootage;
-        final Set<String> keys;
+        return getPropertiesSquareFootage(squareFootage, squareFootage);
+    }
 
+    /**
+     * Retrieves all retail properties whose square footage falls within a specified range, inclusive.
+     * The lookup is answered from a sorted square footage index in O(log n + k) time.
+     *
+     * @param minSquareFootage The minimum square footage (inclusive).
+     * @param maxSquareFootage The maximum square footage (inclusive).
+     * @return An ArrayList of Retail objects within the specified range, ordered by square footage.
+     */
+    public ArrayList<Retail> getPropertiesSquareFootage(final int minSquareFootage,
+                                                        final int maxSquareFootage)
+    {
+        final ArrayList<Retail> propertiesWithSquareFootage;
         propertiesWithSquareFootage = new ArrayList<>();
-        keys = properties.keySet();
 
-        for(final String key : keys)
+        for(final Retail retail : squareFootageIndex.between(minSquareFootage, maxSquareFootage))
         {
-            if(properties.get(key).getType().equalsIgnoreCase("retail"))
-            {
-                final Retail retail;
-                retail = (Retail) properties.get(key);
-                if(retail.getSquareFootage() == squareFootage)
-                {
-                    propertiesWithSquareFootage.add(retail);
-                }
-            }
+            propertiesWithSquareFootage.add(retail);
         }
         return propertiesWithSquareFootage;
     }
 
+    /**
+     * Retrieves all retail properties whose price per square foot falls within a specified range, inclusive.
+     * Retail properties with no square footage are never included. The lookup is answered from a sorted
+     * price per square foot index, kept up to date on price changes, in O(log n + k) time.
+     *
+     * @param minUsd The minimum price per square foot (inclusive) in USD.
+     * @param maxUsd The maximum price per square foot (inclusive) in USD.
+     * @return An ArrayList of Retail objects within the specified range, ordered by price per square foot.
+     */
+    public ArrayList<Retail> getPropertiesPricePerSquareFoot(final double minUsd,
+                                                             final double maxUsd)
+    {
+        final ArrayList<Retail> propertiesWithPrice;
+        propertiesWithPrice = new ArrayList<>();
+
+        for(final Retail retail : pricePerSquareFootIndex.between(minUsd, maxUsd))
+        {
+            propertiesWithPrice.add(retail);
+        }
+        return propertiesWithPrice;
+    }
+
     /**
      * Retrieves all retail properties with customer parking.
      *
@@ -395,56 +723,426 @@ public class Agency
      */
     public ArrayList<Retail> getPropertiesWithCustomerParking()
     {
-        final ArrayList<Retail> propertiesWithCustomerParking;
-        propertiesWithCustomerParking = new ArrayList<>();
+        return retailAmenities.selectAll(EnumSet.of(Amenity.CUSTOMER_PARKING), EnumSet.noneOf(Amenity.class));
+    }
 
-        final Set<String> keys;
-        keys = properties.keySet();
+    /**
+     * Retrieves all properties that are strata's.
+     *
+     * @return An ArrayList of Residence objects that are strata's.
+     */
+    public ArrayList<Residence> getPropertiesWithStrata()
+    {
+        return residenceAmenities.selectAll(EnumSet.of(Amenity.STRATA), EnumSet.noneOf(Amenity.class));
+    }
+
+    /**
+     * Retrieves all properties which have every one of the required amenities and none of the excluded ones,
+     * for example residences with a pool that are not strata's. The filter is evaluated on amenity bitmaps.
+     *
+     * @param required The amenities a property must have.
+     * @param excluded The amenities a property must not have.
+     * @return An ArrayList of the matching properties.
+     */
+    public ArrayList<Property> getPropertiesWithAll(final Set<Amenity> required,
+                                                    final Set<Amenity> excluded)
+    {
+        final ArrayList<Property> matchedProperties;
+        matchedProperties = new ArrayList<>();
 
-        for(final String key : keys)
+        for(final BitmapIndex<? extends Property> amenityIndex : amenityIndexes.values())
         {
-            if(properties.get(key).getType().equalsIgnoreCase("retail"))
-            {
-                final Retail retail;
-                if(properties instanceof Retail)
-                {
-                    retail = (Retail) properties.get(key);
-                    if(retail.isCustomerParking())
-                    {
-                        propertiesWithCustomerParking.add(retail);
-                    }
-                }
-            }
+            matchedProperties.addAll(amenityIndex.selectAll(required, excluded));
         }
-        return propertiesWithCustomerParking;
+
+        return matchedProperties;
     }
 
     /**
-     * Retrieves all properties that are strata's.
+     * Retrieves all properties which have at least one of the specified amenities.
+     * The filter is evaluated on amenity bitmaps.
      *
-     * @return An ArrayList of Residence objects that are strata's.
+     * @param amenities The amenities to look for.
+     * @return An ArrayList of the matching properties.
      */
-    public ArrayList<Residence> getPropertiesWithStrata()
+    public ArrayList<Property> getPropertiesWithAny(final Set<Amenity> amenities)
+    {
+        final ArrayList<Property> matchedProperties;
+        matchedProperties = new ArrayList<>();
+
+        for(final BitmapIndex<? extends Property> amenityIndex : amenityIndexes.values())
+        {
+            matchedProperties.addAll(amenityIndex.selectAny(amenities));
+        }
+
+        return matchedProperties;
+    }
+
+    /**
+     * Retrieves a column-oriented copy of all properties for fast ad hoc scans.
+     * The copy is rebuilt on the first call after the agency has changed, and shared between calls until then.
+     * A rebuild copies every property, so it costs O(n) however small the change was: the snapshot pays off
+     * for many scans between changes, such as a batch of reports over a quiet agency. An agency which changes
+     * between most calls, for example one fed by a ListingTailer, should be queried through query instead.
+     *
+     * @return A ColumnarSnapshot of the current properties.
+     */
+    public ColumnarSnapshot getColumnarSnapshot()
+    {
+        ColumnarCache cache;
+        cache = columnarCache;
+
+        if(cache == null || cache.modificationCount() != modificationCount)
+        {
+            cache = new ColumnarCache(new ColumnarSnapshot(properties.values()), modificationCount);
+            columnarCache = cache;
+        }
+
+        return cache.snapshot();
+    }
+
+    /**
+     * Retrieves every property which matches a query.
+     * The query is run from the most selective index available for it; see plan.
+     *
+     * @param query The query to run.
+     * @return An ArrayList of the properties which match the query.
+     */
+    public ArrayList<Property> query(final PropertyQuery query)
+    {
+        return query(query, () -> planQuery(query).execute());
+    }
+
+    /**
+     * Runs a query through the query cache, if there is one. The result is cached against the mutation epoch of
+     * the type the query implies, or of the whole agency if it implies none, so a change to one type of property
+     * leaves the cached results of queries for the other types current.
+     *
+     * @param query The query to run.
+     * @param execute Runs the query when there is no current cached result.
+     * @return An ArrayList of the properties which match the query.
+     */
+    ArrayList<Property> query(final PropertyQuery query,
+                              final Supplier<ArrayList<Property>> execute)
+    {
+        final PropertyType type;
+        final long epoch;
+        final ArrayList<Property> cached;
+        final ArrayList<Property> matchedProperties;
+
+        if(queryCache == null)
+        {
+            return execute.get();
+        }
+
+        type = query.getImpliedType();
+        epoch = type == null ? modificationCount : getModificationCount(type);
+        cached = queryCache.get(query, epoch);
+
+        if(cached != null)
+        {
+            return cached;
+        }
+
+        matchedProperties = execute.get();
+        queryCache.put(query, epoch, matchedProperties);
+
+        return matchedProperties;
+    }
+
+    /**
+     * Caches the results of up to a number of queries run through query, evicting the least recently
+     * used once full. A cached result is only reused while no property it could match has been added,
+     * removed or repriced. Replacing the cache discards its results and counters.
+     *
+     * @param capacity The number of query results to cache, or 0 to stop caching.
+     * @throws IllegalArgumentException if capacity is negative.
+     */
+    public void setQueryCacheCapacity(final int capacity)
+    {
+        if(capacity < 0)
+        {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        queryCache = capacity == 0 ? null : new QueryCache(capacity);
+    }
+
+    /**
+     * Retrieves the query cache, for example to read its hit, miss and eviction counters.
+     *
+     * @return The query cache, or null if queries are not cached.
+     */
+    public QueryCache getQueryCache()
+    {
+        return queryCache;
+    }
+
+    /**
+     * Retrieves the mutation epoch of the agency: a number which changes whenever a property is added,
+     * removed or repriced.
+     *
+     * @return The mutation epoch of the agency.
+     */
+    public long getModificationCount()
     {
-        final ArrayList<Residence> propertiesWithStrata;
-        final Set<String> keys;
+        return modificationCount;
+    }
 
-        propertiesWithStrata = new ArrayList<>();
-        keys = properties.keySet();
+    /**
+     * Retrieves the mutation epoch of one type of property: a number which changes whenever a property
+     * of that type is added, removed or repriced.
+     *
+     * @param propertyType The type of property.
+     * @return The mutation epoch of the type.
+     */
+    public long getModificationCount(final PropertyType propertyType)
+    {
+        return typeModificationCounts[propertyType.ordinal()];
+    }
 
-        for(final String key : keys)
+    /**
+     * Streams the properties which match a query, lazily. The query is planned as in query, but candidates are
+     * only read as the stream is consumed, so for example {@code stream(query).limit(20)} stops scanning as soon
+     * as it has found 20 matches, and {@code skip} gives offset paging. The stream must be consumed before the
+     * agency next changes.
+     *
+     * @param query The query to run.
+     * @return A Stream of the properties which match the query; empty, never null, if there are none.
+     */
+    public Stream<Property> stream(final PropertyQuery query)
+    {
+        return planQuery(query).stream();
+    }
+
+    /**
+     * Retrieves one page of the properties which match a query, in order of price and then property ID.
+     * When the query has an index which narrows it to a few candidates, they are sorted; otherwise the price
+     * index is walked from the continuation token and the walk stops as soon as the page is full.
+     * Unlike an offset, a continuation token skips nothing and repeats nothing when properties before it
+     * are added or removed between pages.
+     *
+     * @param query The query to run.
+     * @param limit The largest number of properties on the page.
+     * @param continuationToken The token of the previous page, or null for the first page.
+     * @return The page; it has a continuation token if it is full.
+     * @throws IllegalArgumentException if limit is not positive or the token is invalid.
+     */
+    public Page page(final PropertyQuery query,
+                     final int limit,
+                     final String continuationToken)
+    {
+        final PageToken after;
+        final QueryPlan plan;
+        final Iterable<? extends Property> candidates;
+        final List<Property> matchedProperties;
+
+        if(limit <= 0)
         {
-            if(properties.get(key).getType().equalsIgnoreCase("residence"))
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+
+        after = continuationToken == null ? null : PageToken.decode(continuationToken);
+        plan = planQuery(query);
+
+        if(plan.getEstimatedRows() <= SMALL_PLAN_ROWS)
+        {
+            final ArrayList<Property> sorted;
+            sorted = plan.execute();
+
+            sorted.sort(PRICE_ORDER);
+            candidates = sorted;
+        }
+        else if(after == null || after.priceUsd() < query.getMinPriceUsd())
+        {
+            candidates = priceIndex.between(query.getMinPriceUsd(), query.getMaxPriceUsd());
+        }
+        else
+        {
+            candidates = priceIndex.after(after.priceUsd(), after.propertyId(), query.getMaxPriceUsd());
+        }
+
+        matchedProperties = new ArrayList<>(Math.min(limit, SMALL_PLAN_ROWS));
+        for(final Property property : candidates)
+        {
+            if((after == null || after.isBefore(property)) && query.matches(property))
             {
-                final Residence residence;
-                residence = (Residence) properties.get(key);
-                if(residence.hasStrata())
+                matchedProperties.add(property);
+
+                if(matchedProperties.size() == limit)
                 {
-                    propertiesWithStrata.add(residence);
+                    return new Page(Collections.unmodifiableList(matchedProperties), PageToken.after(property).encode());
                 }
             }
         }
-        return propertiesWithStrata;
+
+        return new Page(Collections.unmodifiableList(matchedProperties), null);
+    }
+
+    /**
+     * Retrieves the k cheapest properties which match a query, cheapest first. Properties with the
+     * same price are ordered by property ID. Unless the query narrows down to a few candidates, the price
+     * index is read in ascending order and reading stops at the k-th match.
+     *
+     * @param query The query to run.
+     * @param k The largest number of properties to retrieve.
+     * @return Up to k properties, cheapest first.
+     * @throws IllegalArgumentException if k is not positive.
+     */
+    public List<Property> getCheapest(final PropertyQuery query,
+                                      final int k)
+    {
+        final QueryPlan plan;
+        plan = planQuery(query);
+
+        if(plan.getEstimatedRows() <= SMALL_PLAN_ROWS)
+        {
+            return TopK.select(plan.getAccessPath().scan(), query::matches, k, PRICE_ORDER);
+        }
+
+        return TopK.first(priceIndex.between(query.getMinPriceUsd(), query.getMaxPriceUsd()), query::matches, k);
+    }
+
+    /**
+     * Retrieves the k most expensive properties which match a query, most expensive first. Properties with
+     * the same price are in descending order of property ID. Unless the query narrows down to a few candidates,
+     * the price index is read in descending order and reading stops at the k-th match.
+     *
+     * @param query The query to run.
+     * @param k The largest number of properties to retrieve.
+     * @return Up to k properties, most expensive first.
+     * @throws IllegalArgumentException if k is not positive.
+     */
+    public List<Property> getMostExpensive(final PropertyQuery query,
+                                           final int k)
+    {
+        final QueryPlan plan;
+        plan = planQuery(query);
+
+        if(plan.getEstimatedRows() <= SMALL_PLAN_ROWS)
+        {
+            return TopK.select(plan.getAccessPath().scan(), query::matches, k, PRICE_ORDER.reversed());
+        }
+
+        return TopK.first(priceIndex.descending(query.getMinPriceUsd(), query.getMaxPriceUsd()), query::matches, k);
+    }
+
+    /**
+     * Retrieves the first k properties which match a query in any order, such as by square footage.
+     * The candidates chosen by the query plan are passed through a heap of at most k properties.
+     *
+     * @param query The query to run.
+     * @param k The largest number of properties to retrieve.
+     * @param order The order to rank the matches by.
+     * @return Up to k properties, first in the order first.
+     * @throws IllegalArgumentException if k is not positive.
+     */
+    public List<Property> getTop(final PropertyQuery query,
+                                 final int k,
+                                 final Comparator<? super Property> order)
+    {
+        final QueryPlan plan;
+        plan = planQuery(query);
+
+        return TopK.select(plan.getAccessPath().scan(), query::matches, k, order);
+    }
+
+    /**
+     * Retrieves the properties which match each of many queries, in a single pass over all properties.
+     * This is cheaper than running the queries one by one when there are more than a few of them,
+     * since each query run alone may scan every property.
+     *
+     * @param queries The queries to run.
+     * @return The matches of each query, in the order of the queries.
+     */
+    public List<ArrayList<Property>> queryAll(final List<PropertyQuery> queries)
+    {
+        return new QueryBatch(queries).execute(properties.values());
+    }
+
+    /**
+     * Chooses how a query will be run. Every index which can narrow down the candidates for the query
+     * is considered, along with a scan of all properties, and the one expected to produce the fewest
+     * candidates is picked. The remaining predicates are applied to each candidate as a residual filter.
+     *
+     * @param query The query to plan.
+     * @return The plan for the query.
+     */
+    public QueryPlan plan(final PropertyQuery query)
+    {
+        return planQuery(query);
+    }
+
+    /*
+     * Plans a query for the methods of this class which run one. Subclasses may wrap plan, for example in a lock
+     * the caller already holds, so those methods do not call it.
+     */
+    private QueryPlan planQuery(final PropertyQuery query)
+    {
+        final List<AccessPath> candidates;
+        final PropertyType type;
+
+        candidates = new ArrayList<>();
+        candidates.add(new AccessPath("full scan", limit -> properties.size(), properties::values));
+
+        type = query.getImpliedType();
+        if(type != null)
+        {
+            candidates.add(new AccessPath(type + " partition",
+                                          limit -> partitions.get(type).size(),
+                                          () -> partitions.get(type).values()));
+        }
+
+        if(query.hasBedroomRange())
+        {
+            final Map<String, Residence> bedroomRange;
+            bedroomRange = bedroomIndex.range(query.getMinBedrooms(), query.getMaxBedrooms());
+
+            candidates.add(new AccessPath("bedroom index", limit -> bedroomRange.size(), bedroomRange::values));
+        }
+
+        if(query.hasPriceRange())
+        {
+            candidates.add(new AccessPath("price index",
+                                          limit -> priceIndex.count(query.getMinPriceUsd(), query.getMaxPriceUsd(), limit),
+                                          () -> priceIndex.between(query.getMinPriceUsd(), query.getMaxPriceUsd())));
+        }
+
+        if(query.getStreetName() != null)
+        {
+            candidates.add(new AccessPath("street index",
+                                          limit -> streetIndex.get(query.getStreetName()).size(),
+                                          () -> streetIndex.get(query.getStreetName())));
+        }
+
+        if(query.getCity() != null)
+        {
+            candidates.add(new AccessPath("city index",
+                                          limit -> cityIndex.get(query.getCity()).size(),
+                                          () -> cityIndex.get(query.getCity())));
+        }
+
+        if(!query.getRequiredAmenities().isEmpty())
+        {
+            final BitmapIndex<? extends Property> amenityIndex;
+            amenityIndex = amenityIndexes.get(type);
+
+            // The rarest required amenity bounds the size of the bitmap intersection
+            candidates.add(new AccessPath("amenity bitmaps",
+                                          limit ->
+                                          {
+                                              long rows = Long.MAX_VALUE;
+                                              for(final Amenity amenity : query.getRequiredAmenities())
+                                              {
+                                                  rows = Math.min(rows, amenityIndex.count(amenity));
+                                              }
+                                              return rows;
+                                          },
+                                          () -> amenityIndex.selectAll(query.getRequiredAmenities(),
+                                                                       query.getExcludedAmenities())));
+        }
+
+        return QueryPlanner.plan(query, candidates);
     }
 
     /**
@@ -456,4 +1154,11 @@ public class Agency
     {
         return name;
     }
+
+    /*
+     * A columnar snapshot and the modification count it was built at, published as one value.
+     */
+    private record ColumnarCache(ColumnarSnapshot snapshot, long modificationCount)
+    {
+    }
 }
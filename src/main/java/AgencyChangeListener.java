@@ -0,0 +1,47 @@
+package main.java;
+
+import main.java.property.Property;
+
+/**
+ * A listener which is notified after every change to the properties of an agency.
+ * Agency calls these methods once its own collections and indexes are up to date,
+ * so a listener may query the agency from inside them.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public interface AgencyChangeListener
+{
+    /**
+     * Called after a property has been added to the agency, including when it replaces
+     * a property with the same ID.
+     *
+     * @param property the property which was added
+     */
+    void propertyAdded(Property property);
+
+    /**
+     * Called after a property has been removed from the agency.
+     *
+     * @param property the property which was removed
+     */
+    void propertyRemoved(Property property);
+
+    /**
+     * Called after the price of a property held by the agency has been changed.
+     *
+     * @param property the property whose price changed
+     * @param oldPriceUsd the previous price in USD
+     * @param newPriceUsd the new price in USD
+     */
+    void priceChanged(Property property, double oldPriceUsd, double newPriceUsd);
+
+    /**
+     * Called once the change reported by the methods above has been applied and any lock the agency holds
+     * for it has been released. A listener which must wait on slow work for the change, such as forcing a
+     * log to disk, waits here, so that other threads can use the agency meanwhile. Does nothing by default.
+     */
+    default void changeCompleted()
+    {
+    }
+}
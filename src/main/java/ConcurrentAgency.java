@@ -0,0 +1,636 @@
+package main.java;
+
+import main.java.address.Address;
+import main.java.index.ColumnarSnapshot;
+import main.java.index.PriceSummary;
+import main.java.property.Amenity;
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+import main.java.property.Retail;
+import main.java.query.AccessPath;
+import main.java.query.Page;
+import main.java.query.PropertyQuery;
+import main.java.query.QueryPlan;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * An agency which can be queried from many threads while listings are being added and removed.
+ * Every query holds a shared read lock, so queries run in parallel with each other and only wait
+ * for the short time a change takes to apply. Lookups which read only a few fields, such as
+ * getProperty and the price totals, first run without any lock and are only repeated under the
+ * read lock if a change happened while they ran.
+ *
+ * <p>Every result is a copy, never a view, so it can be used after the lock is released.
+ * A price changed on the Property itself is applied to the indexes and totals under the write lock.
+ * {@link #setPriceUsd(String, double)} also holds the lock while the Property's price field changes,
+ * so readers never see the new price before the indexes have it.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class ConcurrentAgency extends Agency
+{
+    private static final int READS = 0;
+    private static final int WRITES = 1;
+
+    private final StampedLock lock;
+    private final AtomicLong writersArrived;
+    private final AtomicLong writersAdmitted;
+    private final AtomicInteger parkedReaders;
+    private final Object writerTurn;
+    private final ThreadLocal<int[]> holds;
+
+    private boolean completionPending;
+
+    /**
+     * Constructs a new ConcurrentAgency instance with a specified name.
+     *
+     * @param name The name of the agency.
+     */
+    public ConcurrentAgency(final String name)
+    {
+        super(name);
+        lock = new StampedLock();
+        writersArrived = new AtomicLong();
+        writersAdmitted = new AtomicLong();
+        parkedReaders = new AtomicInteger();
+        writerTurn = new Object();
+        holds = ThreadLocal.withInitial(() -> new int[2]);
+    }
+
+    /**
+     * Adds a new Property to the agency's collection if the property is not null,
+     * replacing a property already stored under the same ID.
+     *
+     * @param property The Property object to be added.
+     */
+    @Override
+    public void addProperty(final Property property)
+    {
+        write(() -> super.addProperty(property));
+    }
+
+    /**
+     * Removes a Property from the agency's collection based on its unique ID.
+     * If the property with the specified ID does not exist, no action is taken.
+     *
+     * @param propertyId The unique ID of the Property to be removed.
+     */
+    @Override
+    public void removeProperty(final String propertyId)
+    {
+        write(() -> super.removeProperty(propertyId));
+    }
+
+    /**
+     * Changes the price of a property held by the agency.
+     *
+     * @param propertyId The unique ID of the Property.
+     * @param priceUsd The new price in USD.
+     * @return true if the property exists.
+     */
+    public boolean setPriceUsd(final String propertyId, final double priceUsd)
+    {
+        return write(() ->
+        {
+            final Property property;
+            property = super.getProperty(propertyId);
+
+            if(property == null)
+            {
+                return false;
+            }
+
+            property.setPriceUsd(priceUsd);
+            return true;
+        });
+    }
+
+    /*
+     * Applies a price change made on a Property under the write lock. When the change comes through
+     * setPriceUsd the lock is already held, and write runs the update directly.
+     */
+    @Override
+    void priceChanged(final Property property,
+                      final double oldPriceUsd,
+                      final double newPriceUsd)
+    {
+        write(() -> super.priceChanged(property, oldPriceUsd, newPriceUsd));
+    }
+
+    /**
+     * Registers a listener to be notified after every change to the properties of the agency.
+     * The listener is called while the write lock is held, except for changeCompleted, which is
+     * called once the lock has been released.
+     *
+     * @param listener the listener to register
+     */
+    @Override
+    public void addChangeListener(final AgencyChangeListener listener)
+    {
+        write(() -> super.addChangeListener(listener));
+    }
+
+    /**
+     * Unregisters a listener previously added with addChangeListener.
+     *
+     * @param listener the listener to unregister
+     */
+    @Override
+    public void removeChangeListener(final AgencyChangeListener listener)
+    {
+        write(() -> super.removeChangeListener(listener));
+    }
+
+    /**
+     * Retrieves a Property from the agency's collection by its unique ID.
+     *
+     * @param propertyId The unique ID of the Property to retrieve.
+     * @return The Property object with the specified ID, or null if not found.
+     */
+    @Override
+    public Property getProperty(final String propertyId)
+    {
+        return readOptimistically(() -> super.getProperty(propertyId));
+    }
+
+    /**
+     * Retrieves every property managed by the agency.
+     *
+     * @return A read-only copy of all properties.
+     */
+    @Override
+    public Collection<Property> getProperties()
+    {
+        return read(() -> Collections.unmodifiableList(new ArrayList<>(super.getProperties())));
+    }
+
+    @Override
+    public BigDecimal getTotalPropertyValues()
+    {
+        return readOptimistically(super::getTotalPropertyValues);
+    }
+
+    @Override
+    public PriceSummary getPriceSummary()
+    {
+        return readOptimistically(() -> super.getPriceSummary());
+    }
+
+    @Override
+    public PriceSummary getPriceSummary(final PropertyType propertyType)
+    {
+        return readOptimistically(() -> super.getPriceSummary(propertyType));
+    }
+
+    @Override
+    public ArrayList<Residence> getPropertiesWithPools()
+    {
+        return read(super::getPropertiesWithPools);
+    }
+
+    @Override
+    public Property[] getPropertiesBetween(final double minUsd, final double maxUsd)
+    {
+        return read(() -> super.getPropertiesBetween(minUsd, maxUsd));
+    }
+
+    @Override
+    public ArrayList<Address> getPropertiesOn(final String streetName)
+    {
+        return getPropertiesOn(streetName, false);
+    }
+
+    @Override
+    public ArrayList<Address> getPropertiesOn(final String streetName,
+                                              final boolean ignoreCase)
+    {
+        return read(() -> super.getPropertiesOn(streetName, ignoreCase));
+    }
+
+    /**
+     * Retrieves residences with a number of bedrooms within a specified range, inclusive.
+     *
+     * @param minBedrooms The minimum number of bedrooms (inclusive).
+     * @param maxBedrooms The maximum number of bedrooms (inclusive).
+     * @return A read-only copy keyed by property ID, or null if none found.
+     */
+    @Override
+    public Map<String, Residence> getPropertiesWithBedrooms(final int minBedrooms,
+                                                            final int maxBedrooms)
+    {
+        return read(() ->
+        {
+            final Map<String, Residence> view;
+            view = super.getPropertiesWithBedrooms(minBedrooms, maxBedrooms);
+
+            return view == null ? null : Collections.unmodifiableMap(new LinkedHashMap<>(view));
+        });
+    }
+
+    @Override
+    public ArrayList<Property> getPropertiesOfType(final PropertyType propertyType)
+    {
+        return read(() -> super.getPropertiesOfType(propertyType));
+    }
+
+    @Override
+    public ArrayList<Commercial> getPropertiesWithLoadingDocks()
+    {
+        return read(super::getPropertiesWithLoadingDocks);
+    }
+
+    @Override
+    public ArrayList<Commercial> getPropertiesWithHighwayAccess()
+    {
+        return read(super::getPropertiesWithHighwayAccess);
+    }
+
+    @Override
+    public ArrayList<Retail> getPropertiesSquareFootage(final int squareFootage)
+    {
+        return getPropertiesSquareFootage(squareFootage, squareFootage);
+    }
+
+    @Override
+    public ArrayList<Retail> getPropertiesSquareFootage(final int minSquareFootage,
+                                                       final int maxSquareFootage)
+    {
+        return read(() -> super.getPropertiesSquareFootage(minSquareFootage, maxSquareFootage));
+    }
+
+    @Override
+    public ArrayList<Retail> getPropertiesPricePerSquareFoot(final double minUsd,
+                                                             final double maxUsd)
+    {
+        return read(() -> super.getPropertiesPricePerSquareFoot(minUsd, maxUsd));
+    }
+
+    @Override
+    public ArrayList<Retail> getPropertiesWithCustomerParking()
+    {
+        return read(super::getPropertiesWithCustomerParking);
+    }
+
+    @Override
+    public ArrayList<Residence> getPropertiesWithStrata()
+    {
+        return read(super::getPropertiesWithStrata);
+    }
+
+    @Override
+    public ArrayList<Property> getPropertiesWithAll(final Set<Amenity> required,
+                                                    final Set<Amenity> excluded)
+    {
+        return read(() -> super.getPropertiesWithAll(required, excluded));
+    }
+
+    @Override
+    public ArrayList<Property> getPropertiesWithAny(final Set<Amenity> amenities)
+    {
+        return read(() -> super.getPropertiesWithAny(amenities));
+    }
+
+    @Override
+    public ColumnarSnapshot getColumnarSnapshot()
+    {
+        // Readers may rebuild the snapshot in parallel; Agency publishes each one with its count in a single volatile write
+        return read(super::getColumnarSnapshot);
+    }
+
+    @Override
+    public ArrayList<Property> query(final PropertyQuery query)
+    {
+        return read(() -> super.query(query));
+    }
+
+    /**
+     * Streams the properties which match a query. Another thread may change the agency while the stream
+     * is being consumed, so the matches are collected under the read lock first and the stream is not lazy.
+     *
+     * @param query The query to run.
+     * @return A Stream over a copy of the properties which match the query.
+     */
+    @Override
+    public Stream<Property> stream(final PropertyQuery query)
+    {
+        return query(query).stream();
+    }
+
+    @Override
+    public Page page(final PropertyQuery query,
+                     final int limit,
+                     final String continuationToken)
+    {
+        return read(() -> super.page(query, limit, continuationToken));
+    }
+
+    @Override
+    public List<Property> getCheapest(final PropertyQuery query,
+                                      final int k)
+    {
+        return read(() -> super.getCheapest(query, k));
+    }
+
+    @Override
+    public List<Property> getMostExpensive(final PropertyQuery query,
+                                           final int k)
+    {
+        return read(() -> super.getMostExpensive(query, k));
+    }
+
+    @Override
+    public List<Property> getTop(final PropertyQuery query,
+                                 final int k,
+                                 final Comparator<? super Property> order)
+    {
+        return read(() -> super.getTop(query, k, order));
+    }
+
+    @Override
+    public List<ArrayList<Property>> queryAll(final List<PropertyQuery> queries)
+    {
+        return read(() -> super.queryAll(queries));
+    }
+
+    @Override
+    public void setQueryCacheCapacity(final int capacity)
+    {
+        write(() -> super.setQueryCacheCapacity(capacity));
+    }
+
+    @Override
+    public long getModificationCount()
+    {
+        return readOptimistically(() -> super.getModificationCount());
+    }
+
+    @Override
+    public long getModificationCount(final PropertyType propertyType)
+    {
+        return readOptimistically(() -> super.getModificationCount(propertyType));
+    }
+
+    /**
+     * Chooses how a query will be run. The returned plan takes the read lock while it collects its candidates.
+     *
+     * @param query The query to plan.
+     * @return The plan for the query.
+     */
+    @Override
+    public QueryPlan plan(final PropertyQuery query)
+    {
+        final QueryPlan plan;
+        final AccessPath path;
+
+        plan = read(() -> super.plan(query));
+        path = plan.getAccessPath();
+
+        return new QueryPlan(query,
+                             new AccessPath(path.getName(),
+                                            limit -> read(() -> path.estimateRows(limit)),
+                                            () -> read(() -> copy(path.scan()))),
+                             plan.getEstimatedRows());
+    }
+
+    /*
+     * Holds back the completion of a change made under the write lock until write releases the lock.
+     * Every change, including a price set on the Property itself, is made under the lock; a call without it
+     * is completed at once.
+     */
+    @Override
+    void completeChange()
+    {
+        if(holds.get()[WRITES] > 0)
+        {
+            completionPending = true;
+        }
+        else
+        {
+            super.completeChange();
+        }
+    }
+
+    /*
+     * Runs an action under the write lock.
+     */
+    private void write(final Runnable action)
+    {
+        write(() ->
+        {
+            action.run();
+            return null;
+        });
+    }
+
+    /*
+     * Runs an action under the write lock and returns its result, then tells the listeners of any change it made
+     * that the change is complete. StampedLock is not reentrant, so a thread which already holds the write lock,
+     * such as a change listener changing the agency, runs the action directly. A thread which holds only the
+     * read lock could never be granted the write lock, so it is refused.
+     */
+    private <T> T write(final Supplier<T> action)
+    {
+        final int[] held;
+        final long stamp;
+        final T result;
+        final boolean changed;
+
+        held = holds.get();
+        if(held[WRITES] > 0)
+        {
+            return action.get();
+        }
+        if(held[READS] > 0)
+        {
+            throw new IllegalStateException("Cannot change the agency while reading it");
+        }
+
+        stamp = writeLock();
+        held[WRITES]++;
+
+        try
+        {
+            result = action.get();
+        }
+        finally
+        {
+            held[WRITES]--;
+            changed = completionPending;
+            completionPending = false;
+            lock.unlockWrite(stamp);
+        }
+
+        if(changed)
+        {
+            super.completeChange();
+        }
+
+        return result;
+    }
+
+    /*
+     * Takes the write lock. StampedLock lets new readers join readers which already hold the lock even while
+     * a writer waits, so under a steady stream of queries a writer could wait indefinitely. Each writer is
+     * therefore counted when it arrives and when it is admitted, and readers which arrive in between park in
+     * awaitWriters until it has had its turn.
+     */
+    private long writeLock()
+    {
+        final long stamp;
+
+        writersArrived.incrementAndGet();
+        stamp = lock.writeLock();
+        writersAdmitted.incrementAndGet();
+
+        if(parkedReaders.get() > 0)
+        {
+            synchronized(writerTurn)
+            {
+                writerTurn.notifyAll();
+            }
+        }
+
+        return stamp;
+    }
+
+    /*
+     * Parks until every writer which arrived before this reader has been admitted. Writers which arrive later
+     * do not hold the reader back, so a stream of writes delays each reader by at most one round of writers.
+     */
+    private void awaitWriters()
+    {
+        final long arrived;
+        boolean interrupted;
+
+        arrived = writersArrived.get();
+        if(writersAdmitted.get() >= arrived)
+        {
+            return;
+        }
+
+        interrupted = false;
+        synchronized(writerTurn)
+        {
+            parkedReaders.incrementAndGet();
+            try
+            {
+                while(writersAdmitted.get() < arrived)
+                {
+                    try
+                    {
+                        writerTurn.wait();
+                    }
+                    catch(final InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                parkedReaders.decrementAndGet();
+            }
+        }
+
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Runs an action under the read lock and returns its result. A thread which already holds the lock runs
+     * the action directly: taking the read lock again would wait behind any writer queued meanwhile, and
+     * that writer waits for this thread.
+     */
+    private <T> T read(final Supplier<T> action)
+    {
+        final int[] held;
+        final long stamp;
+
+        held = holds.get();
+        if(held[READS] > 0 || held[WRITES] > 0)
+        {
+            return action.get();
+        }
+
+        awaitWriters();
+        stamp = lock.readLock();
+        held[READS]++;
+
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            held[READS]--;
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * Runs a short action without locking and keeps its result if no change was made meanwhile.
+     * A change made meanwhile can leave the action looking at a half-updated structure, so any
+     * exception it throws is treated the same as a failed validation and the action is run again
+     * under the read lock.
+     */
+    private <T> T readOptimistically(final Supplier<T> action)
+    {
+        final long stamp;
+        stamp = lock.tryOptimisticRead();
+
+        if(stamp != 0)
+        {
+            try
+            {
+                final T result;
+                result = action.get();
+
+                if(lock.validate(stamp))
+                {
+                    return result;
+                }
+            }
+            catch(final RuntimeException e)
+            {
+                // Fall through to the locked read
+            }
+        }
+
+        return read(action);
+    }
+
+    /*
+     * Copies the properties produced by a scan into a list.
+     */
+    private static ArrayList<Property> copy(final Iterable<? extends Property> properties)
+    {
+        final ArrayList<Property> copy;
+        copy = new ArrayList<>();
+
+        for(final Property property : properties)
+        {
+            copy.add(property);
+        }
+
+        return copy;
+    }
+}
@@ -1,14 +1,16 @@
 package main.java;
 
 import main.java.address.Address;
-import main.java.address.AddressReader;
+import main.java.io.IngestResult;
+import main.java.io.ListingIngestor;
+import main.java.io.ListingTailer;
 import main.java.property.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.Set;
 
 /**
  * Represents a driver class for the real estate agency.
@@ -16,31 +18,12 @@ import java.util.Set;
  */
 public class Driver
 {
-    private static final int ADDRESS_INDEX_COUNTER = 0;
-
     private static final String ADDRESS_FILE_PATH = "address_data.txt";
     private static final String PROPERTY_FILE_PATH = "property_data.txt";
 
-    private static final int PROPERTY_PRICE_IN_USD_INDEX = 0;
-
-    private static final int RESIDENCE_NUMBER_OF_BEDROOMS_INDEX = 1;
-    private static final int RESIDENCE_SWIMMING_POOL_INDEX = 2;
-    private static final int RESIDENCE_STRATA_INDEX = 5;
-    private static final int RESIDENCE_PROPERTY_TYPE_INDEX = 3;
-    private static final int RESIDENCE_PROPERTY_ID_INDEX = 4;
-
-    private static final int COMMERCIAL_PROPERTY_TYPE_INDEX = 1;
-    private static final int COMMERCIAL_PROPERTY_ID_INDEX = 2;
-    private static final int COMMERCIAL_LOADING_DOCK_INDEX = 3;
-    private static final int COMMERCIAL_HIGHWAY_ACCESS_INDEX = 4;
-
-    private static final int RETAIL_PROPERTY_TYPE_INDEX = 1;
-    private static final int RETAIL_PROPERTY_ID_INDEX = 2;
-    private static final int RETAIL_SQUARE_FOOTAGE_INDEX = 3;
-    private static final int RETAIL_CUSTOMER_PARKING_INDEX = 4;
-
     private final Scanner scanner;
     private final Agency agency;
+    private ListingTailer tailer;
 
     /**
      * Constructs a new driver object with the specified parameters.
@@ -55,9 +38,9 @@ public class Driver
     /**
      * The main method.
      * @param args the command line arguments
-     * @throws FileNotFoundException if the file is not found
+     * @throws IOException if a data file cannot be read
      */
-    public static void main(final String[] args) throws FileNotFoundException
+    public static void main(final String[] args) throws IOException
     {
         final Agency agency;
         final Driver d;
@@ -71,59 +54,43 @@ public class Driver
 
     /**
      * Initializes the real estate agency with the property data.
-     * @throws FileNotFoundException if the file is not found
+     * The address and property files are read in lockstep, and each property is added to the
+     * agency as soon as it and its address have been read. Lines appended to the files later
+     * are picked up before each search, so new listings appear without a restart.
+     * @throws IOException if a data file cannot be read
      */
-    public void init() throws FileNotFoundException
+    public void init() throws IOException
     {
-        final ArrayList<Address> addresses;
-        final ArrayList<String> properties;
-        final File addressfile;
-        final File propertyfile;
-
-        int addressesIndex;
+        final File addressFile;
+        final File propertyFile;
+        final IngestResult loaded;
 
-        addressfile = new File(ADDRESS_FILE_PATH);
-        addresses = AddressReader.readAddressData(addressfile);
-        propertyfile = new File(PROPERTY_FILE_PATH);
-        properties = PropertyReader.readPropertyData(propertyfile);
+        addressFile = new File(ADDRESS_FILE_PATH);
+        propertyFile = new File(PROPERTY_FILE_PATH);
+        loaded = ListingIngestor.ingestWithOffsets(addressFile, propertyFile, agency::addProperty);
 
-        addressesIndex = ADDRESS_INDEX_COUNTER;
+        // The tailer starts where the load stopped, so it only reads lines appended later
+        tailer = new ListingTailer(addressFile, propertyFile, agency::addProperty,
+                                   loaded.addressOffset(), loaded.propertyOffset());
+    }
 
-        for(final String line : properties)
+    /*
+     * Adds any listings appended to the data files since the last search.
+     */
+    private void refresh()
+    {
+        if(tailer == null)
         {
-            final String[] rawData;
-            rawData = line.split("\\|");
-
-            if(rawData[RESIDENCE_PROPERTY_TYPE_INDEX].equalsIgnoreCase("residence"))
-            {
-                agency.addProperty(new Residence(Double.parseDouble(rawData[PROPERTY_PRICE_IN_USD_INDEX]),
-                                                 addresses.get(addressesIndex),
-                                                 Integer.parseInt(rawData[RESIDENCE_NUMBER_OF_BEDROOMS_INDEX]),
-                                                 Boolean.parseBoolean(rawData[RESIDENCE_SWIMMING_POOL_INDEX]),
-                                                 rawData[RESIDENCE_PROPERTY_TYPE_INDEX],
-                                                 rawData[RESIDENCE_PROPERTY_ID_INDEX],
-                                                 Boolean.parseBoolean(rawData[RESIDENCE_STRATA_INDEX])));
-            }
-            else if(rawData[COMMERCIAL_PROPERTY_TYPE_INDEX].equalsIgnoreCase("commercial"))
-            {
-                agency.addProperty(new Commercial(Double.parseDouble(rawData[PROPERTY_PRICE_IN_USD_INDEX]),
-                                                  addresses.get(addressesIndex),
-                                                  rawData[COMMERCIAL_PROPERTY_TYPE_INDEX],
-                                                  rawData[COMMERCIAL_PROPERTY_ID_INDEX],
-                                                  Boolean.parseBoolean(rawData[COMMERCIAL_LOADING_DOCK_INDEX]),
-                                                  Boolean.parseBoolean(rawData[COMMERCIAL_HIGHWAY_ACCESS_INDEX])));
-            }
-            else
-            {
-                agency.addProperty(new Retail(Double.parseDouble(rawData[PROPERTY_PRICE_IN_USD_INDEX]),
-                                              addresses.get(addressesIndex),
-                                              rawData[RETAIL_PROPERTY_TYPE_INDEX],
-                                              rawData[RETAIL_PROPERTY_ID_INDEX],
-                                              Integer.parseInt(rawData[RETAIL_SQUARE_FOOTAGE_INDEX]),
-                                              Boolean.parseBoolean(rawData[RETAIL_CUSTOMER_PARKING_INDEX])));
-            }
+            return;
+        }
 
-            addressesIndex++;
+        try
+        {
+            tailer.poll();
+        }
+        catch(final IOException | IllegalArgumentException e)
+        {
+            System.out.println("Could not read new listings: " + e.getMessage());
         }
     }
 
@@ -149,6 +116,7 @@ public class Driver
                                        5. Exit""");
 
             choice = scanner.nextInt();
+            refresh();
 
             switch(choice)
             {
@@ -185,6 +153,7 @@ public class Driver
                                        5. Back""");
 
             choice = scanner.nextInt();
+            refresh();
 
             switch(choice)
             {
@@ -197,12 +166,22 @@ public class Driver
                 }
                 case 2 ->
                 {
+                    final ArrayList<Address> addresses;
+
                     System.out.println("Enter the street:");
                     choiceString = scanner.next();
+                    addresses = agency.getPropertiesOn(choiceString, true);
 
-                    for(final Address p : agency.getPropertiesOn(choiceString))
+                    if(addresses == null)
                     {
-                        System.out.println(p);
+                        System.out.println("No properties found on " + choiceString);
+                    }
+                    else
+                    {
+                        for(final Address p : addresses)
+                        {
+                            System.out.println(p);
+                        }
                     }
                 }
                 case 3 ->
@@ -260,6 +239,7 @@ public class Driver
                                        4. Back""");
 
             choice = scanner.nextInt();
+            refresh();
 
             switch(choice)
             {
@@ -274,7 +254,7 @@ public class Driver
                 {
                     final int minBedrooms;
                     final int maxBedrooms;
-                    final Set<String> keys;
+                    final Map<String, Residence> residences;
 
                     System.out.println("Enter the minimum number of bedrooms:");
                     minBedrooms = scanner.nextInt();
@@ -282,11 +262,14 @@ public class Driver
                     System.out.println("Enter the maximum number of bedrooms:");
                     maxBedrooms = scanner.nextInt();
 
-                    keys = agency.getPropertiesWithBedrooms(minBedrooms, maxBedrooms).keySet();
+                    residences = agency.getPropertiesWithBedrooms(minBedrooms, maxBedrooms);
 
-                    for(String key : keys)
+                    if(residences != null)
                     {
-                        System.out.println(agency.getPropertiesWithBedrooms(minBedrooms, maxBedrooms).get(key));
+                        for(final Residence residence : residences.values())
+                        {
+                            System.out.println(residence);
+                        }
                     }
                 }
                 case 3 ->
@@ -326,6 +309,7 @@ public class Driver
                                        3. Back""");
 
             choice = scanner.nextInt();
+            refresh();
 
             switch(choice)
             {
@@ -374,6 +358,7 @@ public class Driver
                                        3. Back""");
 
             choice = scanner.nextInt();
+            refresh();
 
             switch(choice)
             {
@@ -0,0 +1,419 @@
+package main.java;
+
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.Residence;
+import main.java.property.Retail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An agency whose readers always see one consistent version of its properties and indexes.
+ * Each version is a complete, read-only Agency. A reader pins the current version and queries it
+ * for as long as it likes; a writer builds the next version from a copy of the current one, applies
+ * a whole batch of changes to it and then publishes it in a single step. Readers never wait for a
+ * writer, and never see a batch half applied. A version is released once it has been replaced and
+ * the last reader pinning it has finished, so it can be garbage collected.
+ *
+ * <p>Properties are shared between versions, so a version must never be changed in place.
+ * A price change in a batch replaces the property with a copy at the new price.
+ * Building a version copies every property into new indexes, so changes should be grouped into
+ * as few batches as possible.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class VersionedAgency
+{
+    private final String name;
+    private final AtomicReference<Version> current;
+    private final ReentrantLock writeLock;
+    private final AtomicInteger liveVersions;
+
+    /**
+     * Constructs a new VersionedAgency whose first version holds no properties.
+     *
+     * @param name The name of the agency.
+     */
+    public VersionedAgency(final String name)
+    {
+        this.name = name;
+        liveVersions = new AtomicInteger();
+        current = new AtomicReference<>(new Version(new VersionAgency(name), 0));
+        writeLock = new ReentrantLock();
+    }
+
+    /**
+     * Pins the current version so that it stays consistent until the snapshot is closed.
+     *
+     * @return a snapshot of the current version, which must be closed
+     */
+    public Snapshot pin()
+    {
+        while(true)
+        {
+            final Version version;
+            version = current.get();
+
+            // A version which was replaced and released between the two reads cannot be pinned again
+            if(version.tryPin())
+            {
+                return new Snapshot(version);
+            }
+        }
+    }
+
+    /**
+     * Runs a query against the current version, which is pinned while the query runs.
+     *
+     * @param query the query to run
+     * @param <T> the type of the result
+     * @return the result of the query
+     */
+    public <T> T read(final Function<Agency, T> query)
+    {
+        try(final Snapshot snapshot = pin())
+        {
+            return query.apply(snapshot.getAgency());
+        }
+    }
+
+    /**
+     * Applies a batch of changes as a single new version. Writers run one at a time; readers carry on
+     * with the previous version until the new one is published. If the batch throws, nothing is published.
+     *
+     * @param changes the changes to apply
+     * @return the number of the version which was published
+     */
+    public long update(final Consumer<Batch> changes)
+    {
+        writeLock.lock();
+        try
+        {
+            final Version previous;
+            final VersionAgency next;
+
+            previous = current.get();
+            next = new VersionAgency(name);
+            for(final Property property : previous.agency.getProperties())
+            {
+                next.addProperty(property);
+            }
+
+            return publish(next, changes);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces every property with the ones a batch adds, as a single new version. The new version is
+     * built from empty, so a full reload does not pay for copying the version it replaces.
+     *
+     * @param changes the changes which build the new property set
+     * @return the number of the version which was published
+     */
+    public long reload(final Consumer<Batch> changes)
+    {
+        writeLock.lock();
+        try
+        {
+            return publish(new VersionAgency(name), changes);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of the current version. The first version is 0 and each publish adds one.
+     *
+     * @return the current version number
+     */
+    public long getVersion()
+    {
+        return current.get().number;
+    }
+
+    /**
+     * Returns the number of versions which are still current or pinned by a reader.
+     *
+     * @return the number of versions not yet released
+     */
+    public int getLiveVersionCount()
+    {
+        return liveVersions.get();
+    }
+
+    /**
+     * Returns the name of the agency.
+     *
+     * @return The name of the agency.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /*
+     * Applies a batch to a new agency and, if it succeeds, makes it the current version. The write lock must be held.
+     */
+    private long publish(final VersionAgency next, final Consumer<Batch> changes)
+    {
+        final Version previous;
+        final Version version;
+
+        changes.accept(new Batch(next));
+        next.frozen = true;
+
+        previous = current.get();
+        version = new Version(next, previous.number + 1);
+        current.set(version);
+
+        // Drop the pin which kept the previous version current
+        previous.unpin();
+        return version.number;
+    }
+
+    /*
+     * Creates a copy of a property with a different price.
+     */
+    private static Property withPrice(final Property property, final double priceUsd)
+    {
+        return switch(property.getType())
+        {
+            case RESIDENCE ->
+            {
+                final Residence residence;
+                residence = (Residence) property;
+                yield new Residence(priceUsd, residence.getAddress(), residence.getNumberOfBedrooms(),
+                                    residence.hasSwimmingPool(), residence.getPropertyId(), residence.hasStrata());
+            }
+            case COMMERCIAL ->
+            {
+                final Commercial commercial;
+                commercial = (Commercial) property;
+                yield new Commercial(priceUsd, commercial.getAddress(), commercial.getPropertyId(),
+                                     commercial.hasLoadingDock(), commercial.hasHighwayAccess());
+            }
+            case RETAIL ->
+            {
+                final Retail retail;
+                retail = (Retail) property;
+                yield new Retail(priceUsd, retail.getAddress(), retail.getPropertyId(),
+                                 retail.getSquareFootage(), retail.isCustomerParking());
+            }
+        };
+    }
+
+    /**
+     * The changes which can be made to a version while it is being built.
+     */
+    public static final class Batch
+    {
+        private final Agency agency;
+
+        private Batch(final Agency agency)
+        {
+            this.agency = agency;
+        }
+
+        /**
+         * Adds a property, replacing any property with the same ID.
+         *
+         * @param property the property to add
+         */
+        public void addProperty(final Property property)
+        {
+            agency.addProperty(property);
+        }
+
+        /**
+         * Removes the property with an ID. If there is none, no action is taken.
+         *
+         * @param propertyId the ID of the property to remove
+         */
+        public void removeProperty(final String propertyId)
+        {
+            agency.removeProperty(propertyId);
+        }
+
+        /**
+         * Changes the price of a property by replacing it with a copy at the new price,
+         * so that earlier versions keep the old price.
+         *
+         * @param propertyId the ID of the property
+         * @param priceUsd the new price in USD
+         * @return true if the property exists
+         */
+        public boolean setPriceUsd(final String propertyId, final double priceUsd)
+        {
+            final Property property;
+            property = agency.getProperty(propertyId);
+
+            if(property == null)
+            {
+                return false;
+            }
+
+            agency.addProperty(withPrice(property, priceUsd));
+            return true;
+        }
+
+        /**
+         * Returns the version being built, for reading what the batch has done so far.
+         *
+         * @return the agency being built
+         */
+        public Agency getAgency()
+        {
+            return agency;
+        }
+    }
+
+    /**
+     * A version pinned by a reader. The version stays unchanged and reachable until the snapshot is closed.
+     */
+    public static final class Snapshot implements AutoCloseable
+    {
+        private final Version version;
+        private boolean closed;
+
+        private Snapshot(final Version version)
+        {
+            this.version = version;
+        }
+
+        /**
+         * Returns the pinned version. It must not be used after the snapshot is closed.
+         *
+         * @return a read-only Agency
+         * @throws IllegalStateException if the snapshot has been closed
+         */
+        public Agency getAgency()
+        {
+            if(closed)
+            {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+
+            return version.agency;
+        }
+
+        /**
+         * Returns the number of the pinned version.
+         *
+         * @return the version number
+         */
+        public long getVersion()
+        {
+            return version.number;
+        }
+
+        /**
+         * Releases the pin. Closing a snapshot more than once has no further effect.
+         */
+        @Override
+        public void close()
+        {
+            if(!closed)
+            {
+                closed = true;
+                version.unpin();
+            }
+        }
+    }
+
+    /*
+     * The agency of one version, which rejects every change once the version has been published.
+     */
+    private static final class VersionAgency extends Agency
+    {
+        private boolean frozen;
+
+        private VersionAgency(final String name)
+        {
+            super(name, false);
+        }
+
+        @Override
+        public void addProperty(final Property property)
+        {
+            checkNotFrozen();
+            super.addProperty(property);
+        }
+
+        @Override
+        public void removeProperty(final String propertyId)
+        {
+            checkNotFrozen();
+            super.removeProperty(propertyId);
+        }
+
+        @Override
+        public void addChangeListener(final AgencyChangeListener listener)
+        {
+            checkNotFrozen();
+            super.addChangeListener(listener);
+        }
+
+        private void checkNotFrozen()
+        {
+            if(frozen)
+            {
+                throw new UnsupportedOperationException("Published versions are read-only");
+            }
+        }
+    }
+
+    /*
+     * One published version and the number of pins holding it: one for being current, plus one per open snapshot.
+     */
+    private final class Version
+    {
+        private final Agency agency;
+        private final long number;
+        private final AtomicInteger pins;
+
+        private Version(final Agency agency, final long number)
+        {
+            this.agency = agency;
+            this.number = number;
+            this.pins = new AtomicInteger(1);
+            liveVersions.incrementAndGet();
+        }
+
+        private boolean tryPin()
+        {
+            while(true)
+            {
+                final int count;
+                count = pins.get();
+
+                if(count == 0)
+                {
+                    return false;
+                }
+                if(pins.compareAndSet(count, count + 1))
+                {
+                    return true;
+                }
+            }
+        }
+
+        private void unpin()
+        {
+            if(pins.decrementAndGet() == 0)
+            {
+                liveVersions.decrementAndGet();
+            }
+        }
+    }
+}
@@ -79,7 +79,6 @@ public record Address(String unitNumber, int streetNumber, String streetName, St
         {
             throw new IllegalArgumentException("Invalid unit number: " + unitNumber);
         }
-
     }
 
     /**
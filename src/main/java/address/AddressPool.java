@@ -0,0 +1,219 @@
+package main.java.address;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of canonical instances for the parts of addresses which repeat across many listings.
+ * Street names and cities come from a small set of values, so the addresses built by
+ * {@link #address(String, int, String, String, String)} share the single pooled String for each of
+ * them and the duplicates read from the data files can be reclaimed. Unit numbers and postal codes are
+ * nearly unique per listing, so pooling them would cost more than it saves and they are left alone.
+ * Identical Address records can also be shared, which is off by default because most listings have
+ * an address of their own.
+ *
+ * <p>A pool holds strong references to everything in it, so it is meant to live only as long as one
+ * load: the readers create one per file or feed and drop it when they are done, and the strings stay
+ * shared by the addresses built while it was alive.
+ *
+ * <p>The pool keeps a running estimate of the heap it saves, net of the heap taken by its own entries,
+ * for measuring the effect on retained heap. It is safe to use from several threads at once.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class AddressPool
+{
+    // Estimated sizes with compressed references: a String object and its array header, and an Address record
+    private static final int STRING_OVERHEAD_BYTES = 24 + 16;
+    private static final int ADDRESS_BYTES = 32;
+    private static final int ALIGNMENT = 8;
+
+    // Estimated cost of one pool entry: a ConcurrentHashMap node and its share of the table
+    private static final int ENTRY_BYTES = 32 + 8;
+
+    private final Map<String, String> strings;
+    private final Map<Address, Address> addresses;
+    private final LongAdder bytesSaved;
+
+    private volatile boolean addressSharing;
+
+    /**
+     * Constructs a new, empty AddressPool which does not share Address instances.
+     */
+    public AddressPool()
+    {
+        strings = new ConcurrentHashMap<>();
+        addresses = new ConcurrentHashMap<>();
+        bytesSaved = new LongAdder();
+    }
+
+    /**
+     * Creates an Address whose street name and city are the pooled instances, and which is itself the
+     * shared instance if address sharing is enabled.
+     *
+     * @param unitNumber the unit number
+     * @param streetNumber the street number
+     * @param streetName the street name
+     * @param postalCode the postal code
+     * @param city the city
+     * @return an Address with the specified parts
+     * @throws NullPointerException if any of the strings are null
+     * @throws IllegalArgumentException if any of the parts are invalid
+     */
+    public Address address(final String unitNumber,
+                           final int streetNumber,
+                           final String streetName,
+                           final String postalCode,
+                           final String city)
+    {
+        return intern(new Address(unitNumber, streetNumber, intern(streetName), postalCode, intern(city)));
+    }
+
+    /**
+     * Returns the canonical instance of a String, adding it to the pool if it is new.
+     *
+     * @param string the string to look up, which may be null
+     * @return the pooled String equal to string, or null if string is null
+     */
+    public String intern(final String string)
+    {
+        final String canonical;
+
+        if(string == null)
+        {
+            return null;
+        }
+
+        canonical = strings.putIfAbsent(string, string);
+        if(canonical == null)
+        {
+            bytesSaved.add(-ENTRY_BYTES);
+            return string;
+        }
+
+        if(canonical != string)
+        {
+            bytesSaved.add(estimateSize(string));
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the shared instance of an Address if address sharing is enabled, adding it to the pool
+     * if it is new. If sharing is disabled the address itself is returned.
+     *
+     * @param address the address to look up
+     * @return the pooled Address equal to address, or address itself
+     */
+    public Address intern(final Address address)
+    {
+        final Address canonical;
+
+        if(!addressSharing || address == null)
+        {
+            return address;
+        }
+
+        canonical = addresses.putIfAbsent(address, address);
+        if(canonical == null)
+        {
+            bytesSaved.add(-ENTRY_BYTES);
+            return address;
+        }
+
+        if(canonical != address)
+        {
+            bytesSaved.add(ADDRESS_BYTES);
+        }
+        return canonical;
+    }
+
+    /**
+     * Sets whether identical Address instances are shared. Turning sharing off empties the Address
+     * part of the pool but leaves existing shared instances in place.
+     *
+     * @param addressSharing true to share identical addresses
+     */
+    public void setAddressSharing(final boolean addressSharing)
+    {
+        this.addressSharing = addressSharing;
+
+        if(!addressSharing)
+        {
+            addresses.clear();
+        }
+    }
+
+    /**
+     * Returns whether identical Address instances are shared.
+     *
+     * @return true if identical addresses are shared
+     */
+    public boolean isAddressSharing()
+    {
+        return addressSharing;
+    }
+
+    /**
+     * Returns an estimate of the heap, in bytes, saved so far by handing out pooled instances in place of
+     * duplicates, less the heap taken by the entries of the pool. It is negative while most values are unique.
+     *
+     * @return the estimated number of bytes saved
+     */
+    public long getBytesSaved()
+    {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Returns the number of distinct strings in the pool.
+     *
+     * @return the number of pooled strings
+     */
+    public int getStringCount()
+    {
+        return strings.size();
+    }
+
+    /**
+     * Returns the number of distinct addresses in the pool.
+     *
+     * @return the number of pooled addresses
+     */
+    public int getAddressCount()
+    {
+        return addresses.size();
+    }
+
+    /**
+     * Empties the pool and resets the estimate of bytes saved.
+     */
+    public void clear()
+    {
+        strings.clear();
+        addresses.clear();
+        bytesSaved.reset();
+    }
+
+    /*
+     * Estimates the heap taken by a String and its array, assuming compact Latin-1 storage where possible.
+     */
+    private static long estimateSize(final String string)
+    {
+        long bytes;
+        bytes = STRING_OVERHEAD_BYTES + string.length();
+
+        for(int i = 0; i < string.length(); i++)
+        {
+            if(string.charAt(i) > 0xFF)
+            {
+                bytes += string.length();
+                break;
+            }
+        }
+
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
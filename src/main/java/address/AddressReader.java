@@ -1,9 +1,13 @@
 package main.java.address;
 
+import main.java.io.PipeRecordReader;
+
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 /**
  * A class which reads address data from a file and returns an ArrayList of Address objects.
@@ -27,6 +31,20 @@ public class AddressReader
      * @throws FileNotFoundException if the file is not found
      */
     public static ArrayList<Address> readAddressData(final File file) throws FileNotFoundException
+    {
+        return readAddressData(file, new AddressPool());
+    }
+
+    /**
+     * Reads address data from the specified file through a pool supplied by the caller, who can turn on
+     * address sharing beforehand and read the bytes saved afterwards.
+     *
+     * @param file the file to read from
+     * @param pool the pool which supplies street names and cities
+     * @return an ArrayList of Address objects
+     * @throws FileNotFoundException if the file is not found
+     */
+    public static ArrayList<Address> readAddressData(final File file, final AddressPool pool) throws FileNotFoundException
     {
         final ArrayList<Address> addresses;
         final Scanner scanner;
@@ -53,11 +71,62 @@ public class AddressReader
             postalCode = parts[POSTAL_CODE_INDEX];
             city = parts[CITY_INDEX];
 
-            Address address = new Address(unitNumber, streetNumber, streetName, postalCode, city);
+            Address address = pool.address(unitNumber, streetNumber, streetName, postalCode, city);
             addresses.add(address);
         }
 
         scanner.close();
         return addresses;
     }
+
+    /**
+     * Reads address data from the specified file and hands each Address to a sink as soon as it is read.
+     * Fields are parsed straight from the bytes of the file, without splitting each line into Strings first.
+     *
+     * @param file the file to read from
+     * @param sink the consumer which receives each Address, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static void readAddressData(final File file, final Consumer<Address> sink) throws IOException
+    {
+        readAddressData(file, new AddressPool(), sink);
+    }
+
+    /**
+     * Reads address data from the specified file through a pool supplied by the caller and hands each
+     * Address to a sink as soon as it is read.
+     *
+     * @param file the file to read from
+     * @param pool the pool which supplies street names and cities
+     * @param sink the consumer which receives each Address, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static void readAddressData(final File file,
+                                       final AddressPool pool,
+                                       final Consumer<Address> sink) throws IOException
+    {
+        try(final PipeRecordReader reader = PipeRecordReader.open(file))
+        {
+            while(reader.next())
+            {
+                sink.accept(parseAddress(reader, pool));
+            }
+        }
+    }
+
+    /**
+     * Creates an Address from the current record of a reader.
+     *
+     * @param record the reader positioned on an address record
+     * @param pool the pool of the current load, which supplies the street name and city
+     * @return the Address described by the record, shared with identical addresses if the pool shares them
+     */
+    public static Address parseAddress(final PipeRecordReader record, final AddressPool pool)
+    {
+        return pool.address(record.getString(UNIT_NUMBER_INDEX),
+                            record.getInt(STREET_NUMBER_INDEX),
+                            record.getString(STREET_NAME_INDEX),
+                            record.getString(POSTAL_CODE_INDEX),
+                            record.getString(CITY_INDEX));
+    }
 }
@@ -0,0 +1,666 @@
+package main.java.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import main.java.Agency;
+import main.java.ConcurrentAgency;
+import main.java.address.Address;
+import main.java.address.AddressPool;
+import main.java.index.PriceSummary;
+import main.java.io.IngestResult;
+import main.java.io.ListingIngestor;
+import main.java.io.ListingTailer;
+import main.java.property.Amenity;
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+import main.java.property.Retail;
+import main.java.query.PropertyQuery;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the queries of an agency as JSON over HTTP, using the server built into the JDK.
+ * Every request runs on its own virtual thread when the JDK provides them, so thousands of
+ * clients can wait on the server at once without a thread pool to size. On a JDK without
+ * virtual threads each request runs on a pooled platform thread instead.
+ *
+ * <p>The server only reads from the agency, from many threads at once. An agency whose listings
+ * change while it is being served must be a {@link ConcurrentAgency}.
+ *
+ * <ul>
+ *     <li>{@code GET /properties/{id}} returns one property, or 404 if there is none.</li>
+ *     <li>{@code GET /properties} returns every property matching the query parameters
+ *         {@code minPrice}, {@code maxPrice}, {@code type}, {@code minBedrooms}, {@code maxBedrooms},
+ *         {@code with}, {@code without}, {@code street} and {@code city}. The amenity parameters
+ *         take a comma separated list of amenity names, such as {@code with=swimming_pool,strata}.</li>
+ *     <li>{@code GET /summary} returns the price summary of every property, or of one {@code type}.</li>
+ * </ul>
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class AgencyHttpServer implements Closeable
+{
+    /**
+     * The port the server listens on when main is given none.
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    // Popular searches are answered from the cache until a listing they could match changes
+    private static final int QUERY_CACHE_CAPACITY = 1024;
+
+    // Lets connection bursts from many clients queue in the kernel rather than be refused
+    private static final int BACKLOG = 4096;
+
+    private static final String PROPERTIES_PATH = "/properties";
+    private static final String SUMMARY_PATH = "/summary";
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int NOT_FOUND = 404;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int INTERNAL_ERROR = 500;
+
+    private final Agency agency;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a new AgencyHttpServer bound to an address. The server does not accept requests until started.
+     *
+     * @param agency the agency to serve
+     * @param address the address to listen on; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     * @throws NullPointerException if agency is null
+     */
+    public AgencyHttpServer(final Agency agency,
+                            final InetSocketAddress address) throws IOException
+    {
+        if(agency == null)
+        {
+            throw new NullPointerException("Invalid agency: null");
+        }
+
+        this.agency = agency;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = newExecutor();
+
+        server.setExecutor(executor);
+        server.createContext(PROPERTIES_PATH, exchange -> respond(exchange, this::handleProperties));
+        server.createContext(SUMMARY_PATH, exchange -> respond(exchange, this::handleSummary));
+    }
+
+    /**
+     * Loads the agency from the data files in the working directory and serves it until the process is stopped.
+     * Listings appended to the data files are picked up while the server runs.
+     *
+     * @param args an optional port number
+     * @throws IOException if a data file cannot be read or the port cannot be bound
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        final int port;
+        final ConcurrentAgency agency;
+        final File addressFile;
+        final File propertyFile;
+        final AddressPool pool;
+        final IngestResult loaded;
+        final ListingTailer tailer;
+        final Thread tailerThread;
+        final AgencyHttpServer server;
+
+        port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        agency = new ConcurrentAgency("VancoVista");
+        agency.setQueryCacheCapacity(QUERY_CACHE_CAPACITY);
+        addressFile = new File("address_data.txt");
+        propertyFile = new File("property_data.txt");
+        pool = new AddressPool();
+        loaded = ListingIngestor.ingestWithOffsets(addressFile, propertyFile, pool, agency::addProperty);
+        tailer = new ListingTailer(addressFile, propertyFile, agency::addProperty,
+                                   loaded.addressOffset(), loaded.propertyOffset());
+
+        tailerThread = new Thread(tailer, "listing-tailer");
+        tailerThread.setDaemon(true);
+        tailerThread.start();
+
+        server = new AgencyHttpServer(agency, new InetSocketAddress(port));
+        server.start();
+        System.out.println("Serving " + agency.getProperties().size() + " properties on port " + server.getPort() +
+                           " (address pool saved about " + pool.getBytesSaved() + " bytes)");
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the port
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and stops the threads which run them. Requests already running are abandoned.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /*
+     * Creates an executor which runs each task on a new virtual thread. Virtual threads are looked up
+     * reflectively so the server still builds and runs on a JDK without them, where a pool of daemon
+     * platform threads which grows with demand is used instead.
+     */
+    private static ExecutorService newExecutor()
+    {
+        final AtomicInteger threadCount;
+
+        try
+        {
+            final Method factory;
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch(final ReflectiveOperationException | UnsupportedOperationException e)
+        {
+            // Not available, or still a preview feature which was not enabled
+        }
+
+        threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(task ->
+        {
+            final Thread thread;
+            thread = new Thread(task, "agency-http-" + threadCount.incrementAndGet());
+
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Runs a handler for a GET request and closes the exchange. An invalid parameter is answered with 400
+     * and any other failure with 500, so one bad request never leaves a client waiting.
+     */
+    private static void respond(final HttpExchange exchange,
+                                final Handler handler) throws IOException
+    {
+        try(exchange)
+        {
+            if(!"GET".equals(exchange.getRequestMethod()))
+            {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, METHOD_NOT_ALLOWED, "Only GET is supported");
+                return;
+            }
+
+            try
+            {
+                handler.handle(exchange);
+            }
+            catch(final IllegalArgumentException e)
+            {
+                sendError(exchange, BAD_REQUEST, e.getMessage());
+            }
+            catch(final RuntimeException e)
+            {
+                // The details stay in the server's log rather than being handed to the client
+                System.err.println("Could not answer " + exchange.getRequestURI() + ": " + e);
+                sendError(exchange, INTERNAL_ERROR, "Internal server error");
+            }
+        }
+    }
+
+    /*
+     * Handles /properties and /properties/{id}. The server routes every path which merely starts with
+     * /properties here, such as /propertiesXYZ, so anything else is answered with 404.
+     */
+    private void handleProperties(final HttpExchange exchange) throws IOException
+    {
+        final String path;
+        path = exchange.getRequestURI().getPath();
+
+        if(path.startsWith(PROPERTIES_PATH + "/") && path.length() > PROPERTIES_PATH.length() + 1)
+        {
+            final String propertyId;
+            final Property property;
+            final StringBuilder json;
+
+            propertyId = path.substring(PROPERTIES_PATH.length() + 1);
+            property = agency.getProperty(propertyId);
+
+            if(property == null)
+            {
+                sendError(exchange, NOT_FOUND, "No property with ID " + propertyId);
+                return;
+            }
+
+            json = new StringBuilder();
+            appendProperty(json, property);
+            send(exchange, OK, json);
+        }
+        else if(path.equals(PROPERTIES_PATH) || path.equals(PROPERTIES_PATH + "/"))
+        {
+            final PropertyQuery query;
+            query = parseQuery(parseParameters(exchange.getRequestURI().getRawQuery()));
+
+            send(exchange, OK, toJson(agency.query(query)));
+        }
+        else
+        {
+            sendError(exchange, NOT_FOUND, "No resource at " + path);
+        }
+    }
+
+    /*
+     * Handles /summary. As with /properties, longer paths which start with /summary are answered with 404.
+     */
+    private void handleSummary(final HttpExchange exchange) throws IOException
+    {
+        final String path;
+        final Map<String, String> parameters;
+        final String type;
+        final PriceSummary summary;
+        final StringBuilder json;
+
+        path = exchange.getRequestURI().getPath();
+        if(!path.equals(SUMMARY_PATH) && !path.equals(SUMMARY_PATH + "/"))
+        {
+            sendError(exchange, NOT_FOUND, "No resource at " + path);
+            return;
+        }
+
+        parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        type = parameters.remove("type");
+        checkNoneLeft(parameters);
+
+        summary = type == null ? agency.getPriceSummary() : agency.getPriceSummary(parseType(type));
+        json = new StringBuilder();
+
+        json.append("{\"count\":").append(summary.count());
+        json.append(",\"totalUsd\":").append(summary.totalUsd().toPlainString());
+        json.append(",\"minUsd\":");
+        appendNumber(json, summary.minUsd());
+        json.append(",\"maxUsd\":");
+        appendNumber(json, summary.maxUsd());
+        json.append(",\"averageUsd\":");
+        appendNumber(json, summary.averageUsd());
+        json.append('}');
+
+        send(exchange, OK, json);
+    }
+
+    /*
+     * Decodes a raw query string into its parameters. A parameter given more than once keeps its last value.
+     */
+    private static Map<String, String> parseParameters(final String rawQuery)
+    {
+        final Map<String, String> parameters;
+        parameters = new LinkedHashMap<>();
+
+        if(rawQuery == null || rawQuery.isEmpty())
+        {
+            return parameters;
+        }
+
+        for(final String pair : rawQuery.split("&"))
+        {
+            final int equals;
+            final String name;
+            final String value;
+
+            if(pair.isEmpty())
+            {
+                continue;
+            }
+
+            equals = pair.indexOf('=');
+            name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+
+            parameters.put(name, value);
+        }
+
+        return parameters;
+    }
+
+    /*
+     * Builds a query from the parameters of a /properties request.
+     */
+    private static PropertyQuery parseQuery(final Map<String, String> parameters)
+    {
+        final PropertyQuery.Builder builder;
+        final String minPrice;
+        final String maxPrice;
+        final String type;
+        final String minBedrooms;
+        final String maxBedrooms;
+        final String with;
+        final String without;
+        final String street;
+        final String city;
+
+        builder = PropertyQuery.builder();
+        minPrice = parameters.remove("minPrice");
+        maxPrice = parameters.remove("maxPrice");
+        type = parameters.remove("type");
+        minBedrooms = parameters.remove("minBedrooms");
+        maxBedrooms = parameters.remove("maxBedrooms");
+        with = parameters.remove("with");
+        without = parameters.remove("without");
+        street = parameters.remove("street");
+        city = parameters.remove("city");
+        checkNoneLeft(parameters);
+
+        if(minPrice != null || maxPrice != null)
+        {
+            builder.priceBetween(minPrice == null ? Double.NEGATIVE_INFINITY : parseDouble("minPrice", minPrice),
+                                 maxPrice == null ? Double.POSITIVE_INFINITY : parseDouble("maxPrice", maxPrice));
+        }
+        if(type != null)
+        {
+            builder.ofType(parseType(type));
+        }
+        if(minBedrooms != null || maxBedrooms != null)
+        {
+            builder.bedroomsBetween(minBedrooms == null ? Integer.MIN_VALUE : parseInt("minBedrooms", minBedrooms),
+                                    maxBedrooms == null ? Integer.MAX_VALUE : parseInt("maxBedrooms", maxBedrooms));
+        }
+        if(with != null)
+        {
+            for(final String amenity : with.split(","))
+            {
+                builder.with(parseAmenity(amenity));
+            }
+        }
+        if(without != null)
+        {
+            for(final String amenity : without.split(","))
+            {
+                builder.without(parseAmenity(amenity));
+            }
+        }
+        if(street != null)
+        {
+            builder.onStreet(street);
+        }
+        if(city != null)
+        {
+            builder.inCity(city);
+        }
+
+        return builder.build();
+    }
+
+    /*
+     * Rejects parameters which no handler understood, so a misspelt filter is not silently ignored.
+     */
+    private static void checkNoneLeft(final Map<String, String> parameters)
+    {
+        if(!parameters.isEmpty())
+        {
+            throw new IllegalArgumentException("Invalid parameter: " + parameters.keySet().iterator().next());
+        }
+    }
+
+    /*
+     * Parses a number parameter.
+     */
+    private static double parseDouble(final String name,
+                                      final String value)
+    {
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch(final NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    /*
+     * Parses a whole number parameter.
+     */
+    private static int parseInt(final String name,
+                                final String value)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(final NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    /*
+     * Parses a property type label such as "residence".
+     */
+    private static PropertyType parseType(final String label)
+    {
+        final PropertyType type;
+        type = PropertyType.fromLabel(label);
+
+        if(type == null)
+        {
+            throw new IllegalArgumentException("Invalid type: " + label);
+        }
+
+        return type;
+    }
+
+    /*
+     * Parses an amenity name such as "swimming_pool", ignoring case.
+     */
+    private static Amenity parseAmenity(final String name)
+    {
+        for(final Amenity amenity : Amenity.values())
+        {
+            if(amenity.name().equalsIgnoreCase(name.trim()))
+            {
+                return amenity;
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid amenity: " + name);
+    }
+
+    /*
+     * Renders properties as a JSON array.
+     */
+    private static StringBuilder toJson(final Collection<? extends Property> properties)
+    {
+        final StringBuilder json;
+        json = new StringBuilder(properties.size() * 256 + 2);
+
+        json.append('[');
+        for(final Property property : properties)
+        {
+            if(json.length() > 1)
+            {
+                json.append(',');
+            }
+            appendProperty(json, property);
+        }
+        json.append(']');
+
+        return json;
+    }
+
+    /*
+     * Renders one property as a JSON object, with the fields of its type.
+     */
+    private static void appendProperty(final StringBuilder json,
+                                       final Property property)
+    {
+        final Address address;
+        address = property.getAddress();
+
+        json.append("{\"id\":");
+        appendString(json, property.getPropertyId());
+        json.append(",\"type\":");
+        appendString(json, property.getType().getLabel());
+        json.append(",\"priceUsd\":");
+        appendNumber(json, property.getPriceUsd());
+
+        json.append(",\"address\":{\"unitNumber\":");
+        appendString(json, address.unitNumber());
+        json.append(",\"streetNumber\":").append(address.streetNumber());
+        json.append(",\"streetName\":");
+        appendString(json, address.streetName());
+        json.append(",\"postalCode\":");
+        appendString(json, address.postalCode());
+        json.append(",\"city\":");
+        appendString(json, address.city());
+        json.append('}');
+
+        if(property instanceof Residence residence)
+        {
+            json.append(",\"bedrooms\":").append(residence.getNumberOfBedrooms());
+            json.append(",\"swimmingPool\":").append(residence.hasSwimmingPool());
+            json.append(",\"strata\":").append(residence.hasStrata());
+        }
+        else if(property instanceof Commercial commercial)
+        {
+            json.append(",\"loadingDock\":").append(commercial.hasLoadingDock());
+            json.append(",\"highwayAccess\":").append(commercial.hasHighwayAccess());
+        }
+        else if(property instanceof Retail retail)
+        {
+            json.append(",\"squareFootage\":").append(retail.getSquareFootage());
+            json.append(",\"customerParking\":").append(retail.isCustomerParking());
+        }
+
+        json.append('}');
+    }
+
+    /*
+     * Renders a number, or null for NaN and infinities which JSON cannot represent.
+     */
+    private static void appendNumber(final StringBuilder json,
+                                     final double value)
+    {
+        if(Double.isFinite(value))
+        {
+            json.append(value);
+        }
+        else
+        {
+            json.append("null");
+        }
+    }
+
+    /*
+     * Renders a string as a quoted JSON string, or null.
+     */
+    private static void appendString(final StringBuilder json,
+                                     final String value)
+    {
+        if(value == null)
+        {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+        for(int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+
+            switch(c)
+            {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default ->
+                {
+                    if(c < ' ')
+                    {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /*
+     * Sends an error as a JSON object with a message.
+     */
+    private static void sendError(final HttpExchange exchange,
+                                  final int status,
+                                  final String message) throws IOException
+    {
+        final StringBuilder json;
+        json = new StringBuilder();
+
+        json.append("{\"error\":");
+        appendString(json, message);
+        json.append('}');
+
+        send(exchange, status, json);
+    }
+
+    /*
+     * Sends a JSON response with a known length.
+     */
+    private static void send(final HttpExchange exchange,
+                             final int status,
+                             final CharSequence json) throws IOException
+    {
+        final byte[] body;
+        body = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+
+        try(final OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /*
+     * Produces the response to one request.
+     */
+    @FunctionalInterface
+    private interface Handler
+    {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
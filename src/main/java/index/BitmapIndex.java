@@ -0,0 +1,227 @@
+package main.java.index;
+
+import main.java.property.Amenity;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bitmap index over the amenities of one type of property.
+ * Every property is given a dense internal ordinal, and each amenity which applies to the type
+ * has a bitmap with one bit per ordinal. Combined amenity filters such as "pool AND NOT strata"
+ * are then evaluated as word-level bitwise operations instead of one check per property.
+ * Ordinals of removed properties are reused, which keeps the bitmaps dense.
+ *
+ * @param <V> the type of property held by the index
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class BitmapIndex<V extends Property>
+{
+    private final PropertyType propertyType;
+    private final ArrayList<V> byOrdinal;
+    private final Map<V, Integer> ordinals;
+    private final Deque<Integer> freeOrdinals;
+    private final BitSet live;
+    private final Map<Amenity, BitSet> bitmaps;
+
+    /**
+     * Constructs a new, empty BitmapIndex with a bitmap for every amenity of the specified type.
+     *
+     * @param propertyType the type of property held by the index
+     */
+    public BitmapIndex(final PropertyType propertyType)
+    {
+        this.propertyType = propertyType;
+        byOrdinal = new ArrayList<>();
+        ordinals = new IdentityHashMap<>();
+        freeOrdinals = new ArrayDeque<>();
+        live = new BitSet();
+        bitmaps = new EnumMap<>(Amenity.class);
+
+        for(final Amenity amenity : Amenity.values())
+        {
+            if(amenity.getPropertyType() == propertyType)
+            {
+                bitmaps.put(amenity, new BitSet());
+            }
+        }
+    }
+
+    /**
+     * Adds a property to the index. If the property is already indexed, no action is taken.
+     *
+     * @param value the property to add
+     */
+    public void add(final V value)
+    {
+        final int ordinal;
+
+        if(ordinals.containsKey(value))
+        {
+            return;
+        }
+
+        if(freeOrdinals.isEmpty())
+        {
+            ordinal = byOrdinal.size();
+            byOrdinal.add(value);
+        }
+        else
+        {
+            ordinal = freeOrdinals.pop();
+            byOrdinal.set(ordinal, value);
+        }
+
+        ordinals.put(value, ordinal);
+        live.set(ordinal);
+
+        for(final Map.Entry<Amenity, BitSet> entry : bitmaps.entrySet())
+        {
+            entry.getValue().set(ordinal, entry.getKey().isPresentOn(value));
+        }
+    }
+
+    /**
+     * Removes a property from the index. If the property is not indexed, no action is taken.
+     *
+     * @param value the property to remove
+     */
+    public void remove(final V value)
+    {
+        final Integer ordinal;
+        ordinal = ordinals.remove(value);
+
+        if(ordinal == null)
+        {
+            return;
+        }
+
+        live.clear(ordinal);
+        for(final BitSet bitmap : bitmaps.values())
+        {
+            bitmap.clear(ordinal);
+        }
+
+        byOrdinal.set(ordinal, null);
+        freeOrdinals.push(ordinal);
+    }
+
+    /**
+     * Returns the type of property held by the index.
+     *
+     * @return the type of property held by the index
+     */
+    public PropertyType getPropertyType()
+    {
+        return propertyType;
+    }
+
+    /**
+     * Returns the number of indexed properties which have the specified amenity.
+     *
+     * @param amenity the amenity to count
+     * @return the number of properties with the amenity, 0 if it does not apply to this type
+     */
+    public int count(final Amenity amenity)
+    {
+        final BitSet bitmap;
+        bitmap = bitmaps.get(amenity);
+
+        if(bitmap == null)
+        {
+            return 0;
+        }
+
+        return bitmap.cardinality();
+    }
+
+    /**
+     * Selects the properties which have every required amenity and none of the excluded ones.
+     * Excluded amenities which do not apply to this type are ignored, since no property here has them.
+     *
+     * @param required the amenities a property must have
+     * @param excluded the amenities a property must not have
+     * @return the matching properties
+     */
+    public ArrayList<V> selectAll(final Set<Amenity> required, final Set<Amenity> excluded)
+    {
+        final BitSet selection;
+        selection = (BitSet) live.clone();
+
+        for(final Amenity amenity : required)
+        {
+            final BitSet bitmap;
+            bitmap = bitmaps.get(amenity);
+
+            if(bitmap == null)
+            {
+                return new ArrayList<>();
+            }
+            selection.and(bitmap);
+        }
+
+        for(final Amenity amenity : excluded)
+        {
+            final BitSet bitmap;
+            bitmap = bitmaps.get(amenity);
+
+            if(bitmap != null)
+            {
+                selection.andNot(bitmap);
+            }
+        }
+
+        return materialize(selection);
+    }
+
+    /**
+     * Selects the properties which have at least one of the specified amenities.
+     *
+     * @param amenities the amenities to look for
+     * @return the matching properties
+     */
+    public ArrayList<V> selectAny(final Set<Amenity> amenities)
+    {
+        final BitSet selection;
+        selection = new BitSet();
+
+        for(final Amenity amenity : amenities)
+        {
+            final BitSet bitmap;
+            bitmap = bitmaps.get(amenity);
+
+            if(bitmap != null)
+            {
+                selection.or(bitmap);
+            }
+        }
+
+        return materialize(selection);
+    }
+
+    /*
+     * Converts a selection bitmap into the properties at the selected ordinals.
+     */
+    private ArrayList<V> materialize(final BitSet selection)
+    {
+        final ArrayList<V> result;
+        result = new ArrayList<>(selection.cardinality());
+
+        for(int ordinal = selection.nextSetBit(0); ordinal >= 0; ordinal = selection.nextSetBit(ordinal + 1))
+        {
+            result.add(byOrdinal.get(ordinal));
+        }
+
+        return result;
+    }
+}
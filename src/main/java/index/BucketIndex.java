@@ -0,0 +1,201 @@
+package main.java.index;
+
+import main.java.property.Property;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A secondary index over properties keyed by a small, dense, non-negative integer attribute,
+ * such as a number of bedrooms. There is one bucket per key value, so a range query only has to
+ * visit the buckets in the range and its result is a view over them rather than a copy.
+ *
+ * @param <V> the type of property held by the index
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class BucketIndex<V extends Property>
+{
+    private final List<Map<String, V>> buckets;
+
+    /**
+     * Constructs a new, empty BucketIndex.
+     */
+    public BucketIndex()
+    {
+        buckets = new ArrayList<>();
+    }
+
+    /**
+     * Adds a property to the index under the specified key.
+     *
+     * @param key the key to index the property under
+     * @param value the property to add
+     * @throws IllegalArgumentException if key is negative
+     */
+    public void add(final int key, final V value)
+    {
+        if(key < 0)
+        {
+            throw new IllegalArgumentException("Invalid key: " + key);
+        }
+
+        while(buckets.size() <= key)
+        {
+            buckets.add(new LinkedHashMap<>());
+        }
+
+        buckets.get(key).put(value.getPropertyId(), value);
+    }
+
+    /**
+     * Removes a property from the index. The key must be the one the property was added under.
+     *
+     * @param key the key the property is indexed under
+     * @param value the property to remove
+     */
+    public void remove(final int key, final V value)
+    {
+        if(key >= 0 && key < buckets.size())
+        {
+            buckets.get(key).remove(value.getPropertyId(), value);
+        }
+    }
+
+    /**
+     * Returns a read-only view, keyed by property ID, of the properties whose key falls within
+     * a specified range, inclusive. The view reflects later changes to the index.
+     *
+     * @param min the minimum key (inclusive)
+     * @param max the maximum key (inclusive)
+     * @return a view of the matching properties keyed by property ID
+     */
+    public Map<String, V> range(final int min, final int max)
+    {
+        return new RangeView(min, max);
+    }
+
+    /*
+     * A map view over the buckets between two keys.
+     */
+    private final class RangeView extends AbstractMap<String, V>
+    {
+        private final int min;
+        private final int max;
+
+        private RangeView(final int min, final int max)
+        {
+            this.min = Math.max(min, 0);
+            this.max = max;
+        }
+
+        private int last()
+        {
+            return Math.min(max, buckets.size() - 1);
+        }
+
+        @Override
+        public V get(final Object key)
+        {
+            for(int i = min; i <= last(); i++)
+            {
+                final V value;
+                value = buckets.get(i).get(key);
+
+                if(value != null)
+                {
+                    return value;
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size()
+        {
+            int size;
+            size = 0;
+
+            for(int i = min; i <= last(); i++)
+            {
+                size += buckets.get(i).size();
+            }
+
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet()
+        {
+            return new AbstractSet<>()
+            {
+                @Override
+                public Iterator<Entry<String, V>> iterator()
+                {
+                    return new EntryIterator(min, last());
+                }
+
+                @Override
+                public int size()
+                {
+                    return RangeView.this.size();
+                }
+            };
+        }
+    }
+
+    /*
+     * Iterates over the entries of consecutive buckets without copying them.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, V>>
+    {
+        private final int last;
+        private int next;
+        private Iterator<Map.Entry<String, V>> current;
+
+        private EntryIterator(final int first, final int last)
+        {
+            this.last = last;
+            this.next = first;
+            this.current = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while(!current.hasNext() && next <= last)
+            {
+                current = Collections.unmodifiableMap(buckets.get(next++)).entrySet().iterator();
+            }
+
+            return current.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, V> next()
+        {
+            if(!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package main.java.index;
+
+import main.java.property.Amenity;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+import main.java.property.Retail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A column-oriented copy of a set of properties for fast ad hoc scans.
+ * Each attribute is held in its own primitive array, one entry per row, so a filter is a tight
+ * loop over one array instead of a walk through Property and Address objects.
+ * Filters produce selection masks, one bit per row packed into longs, which can be combined
+ * with and, andNot and or, then counted or turned back into properties.
+ * A snapshot does not change after it is built.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class ColumnarSnapshot
+{
+    /**
+     * The value stored in the bedroom column for properties which are not residences.
+     */
+    public static final int NO_BEDROOMS = -1;
+
+    /**
+     * The value stored in the square footage column for properties which are not retail.
+     */
+    public static final int NO_SQUARE_FOOTAGE = -1;
+
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_BITS = 64;
+
+    private final int rowCount;
+    private final Property[] rows;
+    private final double[] prices;
+    private final byte[] typeCodes;
+    private final int[] bedrooms;
+    private final int[] squareFootage;
+    private final long[][] amenityColumns;
+
+    /**
+     * Constructs a new ColumnarSnapshot of the specified properties.
+     *
+     * @param properties the properties to copy into columns
+     */
+    public ColumnarSnapshot(final Collection<? extends Property> properties)
+    {
+        final Amenity[] amenities;
+        int row;
+
+        rowCount = properties.size();
+        rows = new Property[rowCount];
+        prices = new double[rowCount];
+        typeCodes = new byte[rowCount];
+        bedrooms = new int[rowCount];
+        squareFootage = new int[rowCount];
+
+        amenities = Amenity.values();
+        amenityColumns = new long[amenities.length][wordCount(rowCount)];
+
+        row = 0;
+        for(final Property property : properties)
+        {
+            rows[row] = property;
+            prices[row] = property.getPriceUsd();
+            typeCodes[row] = (byte) property.getType().ordinal();
+            bedrooms[row] = property instanceof Residence residence ? residence.getNumberOfBedrooms() : NO_BEDROOMS;
+            squareFootage[row] = property instanceof Retail retail ? retail.getSquareFootage() : NO_SQUARE_FOOTAGE;
+
+            for(final Amenity amenity : amenities)
+            {
+                if(amenity.isPresentOn(property))
+                {
+                    amenityColumns[amenity.ordinal()][row >>> WORD_SHIFT] |= 1L << row;
+                }
+            }
+
+            row++;
+        }
+    }
+
+    /**
+     * Returns the number of rows in the snapshot.
+     *
+     * @return the number of rows
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Counts the rows whose price falls within a specified range, inclusive, without building a mask.
+     *
+     * @param minUsd the minimum price (inclusive) in USD
+     * @param maxUsd the maximum price (inclusive) in USD
+     * @return the number of matching rows
+     */
+    public int countPriceBetween(final double minUsd, final double maxUsd)
+    {
+        int count;
+        count = 0;
+
+        for(int i = 0; i < rowCount; i++)
+        {
+            final double price = prices[i];
+            count += (price >= minUsd & price <= maxUsd) ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    /**
+     * Selects the rows whose price falls within a specified range, inclusive.
+     *
+     * @param minUsd the minimum price (inclusive) in USD
+     * @param maxUsd the maximum price (inclusive) in USD
+     * @return a selection mask of the matching rows
+     */
+    public long[] selectPriceBetween(final double minUsd, final double maxUsd)
+    {
+        final long[] mask;
+        mask = new long[wordCount(rowCount)];
+
+        for(int i = 0; i < rowCount; i++)
+        {
+            final double price = prices[i];
+            mask[i >>> WORD_SHIFT] |= ((price >= minUsd & price <= maxUsd) ? 1L : 0L) << i;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Selects the rows of a specific property type.
+     *
+     * @param propertyType the type of property
+     * @return a selection mask of the matching rows
+     */
+    public long[] selectType(final PropertyType propertyType)
+    {
+        final long[] mask;
+        final byte code;
+
+        mask = new long[wordCount(rowCount)];
+        code = (byte) propertyType.ordinal();
+
+        for(int i = 0; i < rowCount; i++)
+        {
+            mask[i >>> WORD_SHIFT] |= (typeCodes[i] == code ? 1L : 0L) << i;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Selects the residences whose number of bedrooms falls within a specified range, inclusive.
+     *
+     * @param min the minimum number of bedrooms (inclusive)
+     * @param max the maximum number of bedrooms (inclusive)
+     * @return a selection mask of the matching rows
+     */
+    public long[] selectBedroomsBetween(final int min, final int max)
+    {
+        return selectBetween(bedrooms, Math.max(min, 0), max);
+    }
+
+    /**
+     * Selects the retail properties whose square footage falls within a specified range, inclusive.
+     *
+     * @param min the minimum square footage (inclusive)
+     * @param max the maximum square footage (inclusive)
+     * @return a selection mask of the matching rows
+     */
+    public long[] selectSquareFootageBetween(final int min, final int max)
+    {
+        return selectBetween(squareFootage, Math.max(min, 0), max);
+    }
+
+    /**
+     * Selects the rows which have an amenity.
+     *
+     * @param amenity the amenity
+     * @return a selection mask of the matching rows
+     */
+    public long[] selectAmenity(final Amenity amenity)
+    {
+        return amenityColumns[amenity.ordinal()].clone();
+    }
+
+    /**
+     * Keeps only the rows selected in both masks, storing the result in the first mask.
+     *
+     * @param mask the mask to update
+     * @param other the mask to combine with
+     * @return the updated mask
+     */
+    public static long[] and(final long[] mask, final long[] other)
+    {
+        for(int i = 0; i < mask.length; i++)
+        {
+            mask[i] &= other[i];
+        }
+
+        return mask;
+    }
+
+    /**
+     * Removes the rows selected in the other mask, storing the result in the first mask.
+     *
+     * @param mask the mask to update
+     * @param other the mask of rows to remove
+     * @return the updated mask
+     */
+    public static long[] andNot(final long[] mask, final long[] other)
+    {
+        for(int i = 0; i < mask.length; i++)
+        {
+            mask[i] &= ~other[i];
+        }
+
+        return mask;
+    }
+
+    /**
+     * Adds the rows selected in the other mask, storing the result in the first mask.
+     *
+     * @param mask the mask to update
+     * @param other the mask of rows to add
+     * @return the updated mask
+     */
+    public static long[] or(final long[] mask, final long[] other)
+    {
+        for(int i = 0; i < mask.length; i++)
+        {
+            mask[i] |= other[i];
+        }
+
+        return mask;
+    }
+
+    /**
+     * Counts the rows selected in a mask.
+     *
+     * @param mask the mask to count
+     * @return the number of selected rows
+     */
+    public static int count(final long[] mask)
+    {
+        int count;
+        count = 0;
+
+        for(final long word : mask)
+        {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the properties of the rows selected in a mask, in row order.
+     *
+     * @param mask the mask of rows
+     * @return an ArrayList of the selected properties
+     */
+    public ArrayList<Property> materialize(final long[] mask)
+    {
+        final ArrayList<Property> result;
+        result = new ArrayList<>(count(mask));
+
+        for(int w = 0; w < mask.length; w++)
+        {
+            long word = mask[w];
+
+            while(word != 0)
+            {
+                result.add(rows[(w << WORD_SHIFT) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Selects the rows of an int column whose value falls within a range, inclusive.
+     */
+    private long[] selectBetween(final int[] column, final int min, final int max)
+    {
+        final long[] mask;
+        mask = new long[wordCount(rowCount)];
+
+        for(int i = 0; i < rowCount; i++)
+        {
+            final int value = column[i];
+            mask[i >>> WORD_SHIFT] |= ((value >= min & value <= max) ? 1L : 0L) << i;
+        }
+
+        return mask;
+    }
+
+    /*
+     * Returns the number of longs needed to hold one bit per row.
+     */
+    private static int wordCount(final int rowCount)
+    {
+        return (rowCount + WORD_BITS - 1) >>> WORD_SHIFT;
+    }
+}
@@ -0,0 +1,96 @@
+package main.java.index;
+
+import main.java.property.Property;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A hashed secondary index over properties keyed by a text attribute, such as a street name.
+ * Keys are normalized by trimming surrounding whitespace and lower casing them, so one
+ * bucket holds every spelling of the same name. A lookup costs O(1 + k) where k is the
+ * number of properties in the bucket.
+ *
+ * @param <V> the type of property held by the index
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class HashIndex<V extends Property>
+{
+    private final Map<String, Map<String, V>> buckets;
+
+    /**
+     * Constructs a new, empty HashIndex.
+     */
+    public HashIndex()
+    {
+        buckets = new HashMap<>();
+    }
+
+    /**
+     * Normalizes a key the same way the index does.
+     *
+     * @param key the key to normalize
+     * @return the key without surrounding whitespace and in lower case
+     */
+    public static String normalize(final String key)
+    {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a property to the index under the specified key.
+     *
+     * @param key the key to index the property under
+     * @param value the property to add
+     */
+    public void add(final String key, final V value)
+    {
+        buckets.computeIfAbsent(normalize(key), k -> new LinkedHashMap<>())
+               .put(value.getPropertyId(), value);
+    }
+
+    /**
+     * Removes a property from the index. The key must be the one the property was added under.
+     *
+     * @param key the key the property is indexed under
+     * @param value the property to remove
+     */
+    public void remove(final String key, final V value)
+    {
+        final String normalizedKey;
+        final Map<String, V> bucket;
+
+        normalizedKey = normalize(key);
+        bucket = buckets.get(normalizedKey);
+
+        if(bucket != null && bucket.remove(value.getPropertyId(), value) && bucket.isEmpty())
+        {
+            buckets.remove(normalizedKey);
+        }
+    }
+
+    /**
+     * Retrieves the properties indexed under a key, ignoring case and surrounding whitespace.
+     *
+     * @param key the key to look up
+     * @return an unmodifiable view of the matching properties, empty if none found
+     */
+    public Collection<V> get(final String key)
+    {
+        final Map<String, V> bucket;
+        bucket = buckets.get(normalize(key));
+
+        if(bucket == null)
+        {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableCollection(bucket.values());
+    }
+}
@@ -0,0 +1,93 @@
+package main.java.index;
+
+import java.math.BigDecimal;
+
+/**
+ * Running price aggregates for a group of properties: count and sum.
+ * The aggregates are updated as properties are added, removed and repriced, so reading them
+ * costs O(1) instead of a scan. The sum is kept as an exact BigDecimal so it cannot overflow. Each price
+ * is added as the decimal it prints as, so a price of 19.99 adds exactly 19.99 rather than its binary expansion.
+ * The lowest and highest prices are not kept here, since the price index already holds every price in order.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class PriceAggregate
+{
+    private long count;
+    private BigDecimal totalUsd;
+
+    /**
+     * Constructs a new PriceAggregate for an empty group of properties.
+     */
+    public PriceAggregate()
+    {
+        count = 0;
+        totalUsd = BigDecimal.ZERO;
+    }
+
+    /**
+     * Adds a price to the aggregates.
+     *
+     * @param priceUsd the price in USD
+     */
+    public void add(final double priceUsd)
+    {
+        count++;
+        totalUsd = totalUsd.add(BigDecimal.valueOf(priceUsd));
+    }
+
+    /**
+     * Removes a price previously added to the aggregates. The price must have been added.
+     *
+     * @param priceUsd the price in USD
+     */
+    public void remove(final double priceUsd)
+    {
+        count--;
+        totalUsd = totalUsd.subtract(BigDecimal.valueOf(priceUsd));
+    }
+
+    /**
+     * Replaces a price previously added to the aggregates with a new one.
+     *
+     * @param oldPriceUsd the previous price in USD
+     * @param newPriceUsd the new price in USD
+     */
+    public void update(final double oldPriceUsd, final double newPriceUsd)
+    {
+        totalUsd = totalUsd.subtract(BigDecimal.valueOf(oldPriceUsd)).add(BigDecimal.valueOf(newPriceUsd));
+    }
+
+    /**
+     * Returns the number of prices in the aggregates.
+     *
+     * @return the number of prices
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the exact sum of the prices in the aggregates.
+     *
+     * @return the sum of the prices in USD
+     */
+    public BigDecimal getTotalUsd()
+    {
+        return totalUsd;
+    }
+
+    /**
+     * Returns the current aggregates together with the lowest and highest prices, which the caller looks up.
+     *
+     * @param minUsd the lowest price in USD, NaN if there are no prices
+     * @param maxUsd the highest price in USD, NaN if there are no prices
+     * @return a summary of the current aggregates
+     */
+    public PriceSummary summary(final double minUsd, final double maxUsd)
+    {
+        return new PriceSummary(count, totalUsd, minUsd, maxUsd);
+    }
+}
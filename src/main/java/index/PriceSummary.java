@@ -0,0 +1,32 @@
+package main.java.index;
+
+import java.math.BigDecimal;
+
+/**
+ * Represents the aggregate prices of a group of properties at one point in time.
+ *
+ * @param count the number of properties
+ * @param totalUsd the exact sum of the prices in USD
+ * @param minUsd the lowest price in USD, NaN if there are no properties
+ * @param maxUsd the highest price in USD, NaN if there are no properties
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public record PriceSummary(long count, BigDecimal totalUsd, double minUsd, double maxUsd)
+{
+    /**
+     * Returns the average price of the properties.
+     *
+     * @return the average price in USD, NaN if there are no properties
+     */
+    public double averageUsd()
+    {
+        if(count == 0)
+        {
+            return Double.NaN;
+        }
+
+        return totalUsd.doubleValue() / count;
+    }
+}
@@ -0,0 +1,369 @@
+package main.java.index;
+
+import main.java.property.Property;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from property ID to property which stores each ID packed into a single long.
+ * Property IDs are one to six characters long, so an ID made only of Latin-1 characters fits in
+ * 48 bits with its length above them. Packed IDs are kept in an open-addressing table of primitive
+ * longs, so a lookup hashes and compares longs with no boxing and no String hashCode or equals,
+ * and an entry costs two array slots instead of a HashMap node. The rare ID with a character
+ * outside Latin-1 is kept in an ordinary HashMap instead.
+ *
+ * @param <V> the type of property held by the map
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class PropertyIdMap<V extends Property>
+{
+    /**
+     * The value returned by encode for an ID which cannot be packed.
+     */
+    public static final long NOT_PACKABLE = -1L;
+
+    private static final int MAX_PACKED_LENGTH = 6;
+    private static final int BITS_PER_CHAR = 8;
+    private static final int LENGTH_SHIFT = MAX_PACKED_LENGTH * BITS_PER_CHAR;
+    private static final char MAX_PACKED_CHAR = 0xFF;
+
+    // No packed ID is zero because its length is at least one
+    private static final long EMPTY = 0L;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long FIBONACCI_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final Map<String, V> unpacked;
+    private final Collection<V> values;
+
+    private long[] keys;
+    private V[] slots;
+    private int shift;
+    private int packedSize;
+
+    /**
+     * Constructs a new, empty PropertyIdMap.
+     */
+    public PropertyIdMap()
+    {
+        unpacked = new HashMap<>();
+        values = new Values();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Packs a property ID into a long: the characters in the low 48 bits, eight bits each, and the length above them.
+     *
+     * @param propertyId the ID to pack
+     * @return the packed ID, or NOT_PACKABLE if the ID is null, longer than six characters or not Latin-1
+     */
+    public static long encode(final String propertyId)
+    {
+        long packed;
+
+        if(propertyId == null || propertyId.isEmpty() || propertyId.length() > MAX_PACKED_LENGTH)
+        {
+            return NOT_PACKABLE;
+        }
+
+        packed = (long) propertyId.length() << LENGTH_SHIFT;
+        for(int i = 0; i < propertyId.length(); i++)
+        {
+            final char c = propertyId.charAt(i);
+
+            if(c > MAX_PACKED_CHAR)
+            {
+                return NOT_PACKABLE;
+            }
+            packed |= (long) c << (i * BITS_PER_CHAR);
+        }
+
+        return packed;
+    }
+
+    /**
+     * Unpacks a property ID packed by encode.
+     *
+     * @param packed the packed ID
+     * @return the property ID
+     */
+    public static String decode(final long packed)
+    {
+        final int length;
+        final char[] chars;
+
+        length = (int) (packed >>> LENGTH_SHIFT);
+        chars = new char[length];
+
+        for(int i = 0; i < length; i++)
+        {
+            chars[i] = (char) ((packed >>> (i * BITS_PER_CHAR)) & MAX_PACKED_CHAR);
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Returns the property stored under an ID.
+     *
+     * @param propertyId the ID to look up
+     * @return the property with that ID, or null if there is none
+     */
+    public V get(final String propertyId)
+    {
+        final long key;
+        key = encode(propertyId);
+
+        if(key == NOT_PACKABLE)
+        {
+            return propertyId == null ? null : unpacked.get(propertyId);
+        }
+
+        return slots[find(key)];
+    }
+
+    /**
+     * Stores a property under its ID, replacing any property already stored under that ID.
+     *
+     * @param value the property to store
+     * @return the property previously stored under the same ID, or null if there was none
+     */
+    public V put(final V value)
+    {
+        final long key;
+        final int slot;
+        final V previous;
+
+        key = encode(value.getPropertyId());
+        if(key == NOT_PACKABLE)
+        {
+            return unpacked.put(value.getPropertyId(), value);
+        }
+
+        slot = find(key);
+        previous = slots[slot];
+        keys[slot] = key;
+        slots[slot] = value;
+
+        if(previous == null)
+        {
+            packedSize++;
+
+            // Keep the table at most half full so probe sequences stay short
+            if(packedSize * 2 > keys.length)
+            {
+                resize();
+            }
+        }
+
+        return previous;
+    }
+
+    /**
+     * Removes the property stored under an ID.
+     *
+     * @param propertyId the ID of the property to remove
+     * @return the property which was removed, or null if there was none
+     */
+    public V remove(final String propertyId)
+    {
+        final long key;
+        final int slot;
+        final V removed;
+
+        key = encode(propertyId);
+        if(key == NOT_PACKABLE)
+        {
+            return propertyId == null ? null : unpacked.remove(propertyId);
+        }
+
+        slot = find(key);
+        removed = slots[slot];
+
+        if(removed != null)
+        {
+            deleteSlot(slot);
+            packedSize--;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Returns the number of properties in the map.
+     *
+     * @return the number of properties
+     */
+    public int size()
+    {
+        return packedSize + unpacked.size();
+    }
+
+    /**
+     * Returns a read-only view of every property in the map, which reflects later changes to it.
+     *
+     * @return a view of the properties
+     */
+    public Collection<V> values()
+    {
+        return values;
+    }
+
+    /*
+     * Returns the slot holding a key, or the empty slot where it would be inserted.
+     */
+    private int find(final long key)
+    {
+        final int mask;
+        int slot;
+
+        mask = keys.length - 1;
+        slot = (int) ((key * FIBONACCI_MULTIPLIER) >>> shift);
+
+        while(keys[slot] != EMPTY && keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /*
+     * Empties a slot and moves later entries of the same probe run back into the gap,
+     * so lookups never need tombstones.
+     */
+    private void deleteSlot(final int slot)
+    {
+        final int mask;
+        int gap;
+        int next;
+
+        mask = keys.length - 1;
+        gap = slot;
+        next = (slot + 1) & mask;
+
+        while(keys[next] != EMPTY)
+        {
+            final int home = (int) ((keys[next] * FIBONACCI_MULTIPLIER) >>> shift);
+
+            // An entry may fill the gap if its home slot does not lie cyclically between the gap and itself
+            if(((next - home) & mask) >= ((next - gap) & mask))
+            {
+                keys[gap] = keys[next];
+                slots[gap] = slots[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[gap] = EMPTY;
+        slots[gap] = null;
+    }
+
+    /*
+     * Doubles the table and reinserts every packed entry.
+     */
+    private void resize()
+    {
+        final long[] oldKeys;
+        final V[] oldSlots;
+
+        oldKeys = keys;
+        oldSlots = slots;
+        allocate(keys.length * 2);
+
+        for(int i = 0; i < oldKeys.length; i++)
+        {
+            if(oldKeys[i] != EMPTY)
+            {
+                final int slot = find(oldKeys[i]);
+
+                keys[slot] = oldKeys[i];
+                slots[slot] = oldSlots[i];
+            }
+        }
+    }
+
+    /*
+     * Replaces the table with an empty one of a power-of-two capacity.
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(final int capacity)
+    {
+        keys = new long[capacity];
+        slots = (V[]) new Property[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    /*
+     * A read-only view of the packed entries followed by the unpacked ones.
+     */
+    private final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public int size()
+        {
+            return PropertyIdMap.this.size();
+        }
+
+        @Override
+        public boolean contains(final Object o)
+        {
+            return o instanceof Property property && get(property.getPropertyId()) == property;
+        }
+
+        @Override
+        public Iterator<V> iterator()
+        {
+            return new Iterator<>()
+            {
+                private final V[] table = slots;
+                private final Iterator<V> rest = unpacked.values().iterator();
+                private int slot = advance(0);
+
+                private int advance(final int from)
+                {
+                    int next;
+                    next = from;
+
+                    while(next < table.length && table[next] == null)
+                    {
+                        next++;
+                    }
+                    return next;
+                }
+
+                @Override
+                public boolean hasNext()
+                {
+                    return slot < table.length || rest.hasNext();
+                }
+
+                @Override
+                public V next()
+                {
+                    final V value;
+
+                    if(slot < table.length)
+                    {
+                        value = table[slot];
+                        slot = advance(slot + 1);
+                        return value;
+                    }
+                    if(!rest.hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return rest.next();
+                }
+            };
+        }
+
+    }
+}
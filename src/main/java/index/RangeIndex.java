@@ -0,0 +1,272 @@
+package main.java.index;
+
+import main.java.property.Property;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * A sorted secondary index over properties. Properties are grouped into buckets by a
+ * comparable key (such as price) and the buckets are kept in key order, so a range lookup
+ * costs O(log n + k) where k is the number of matching properties.
+ * Within a bucket, properties are ordered by their property ID.
+ *
+ * @param <K> the type of the key the properties are sorted by
+ * @param <V> the type of property held by the index
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class RangeIndex<K extends Comparable<K>, V extends Property>
+{
+    private final NavigableMap<K, NavigableMap<String, V>> buckets;
+    private int size;
+
+    /**
+     * Constructs a new, empty RangeIndex.
+     */
+    public RangeIndex()
+    {
+        buckets = new TreeMap<>();
+        size = 0;
+    }
+
+    /**
+     * Adds a property to the index under the specified key.
+     *
+     * @param key the key to index the property under
+     * @param value the property to add
+     */
+    public void add(final K key, final V value)
+    {
+        final NavigableMap<String, V> bucket;
+        bucket = buckets.computeIfAbsent(key, k -> new TreeMap<>());
+
+        if(bucket.put(value.getPropertyId(), value) == null)
+        {
+            size++;
+        }
+    }
+
+    /**
+     * Removes a property from the index. The key must be the one the property was added under.
+     *
+     * @param key the key the property is indexed under
+     * @param value the property to remove
+     * @return true if the property was found and removed, false otherwise
+     */
+    public boolean remove(final K key, final V value)
+    {
+        final NavigableMap<String, V> bucket;
+        bucket = buckets.get(key);
+
+        if(bucket == null || !bucket.remove(value.getPropertyId(), value))
+        {
+            return false;
+        }
+
+        if(bucket.isEmpty())
+        {
+            buckets.remove(key);
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves a property from one key to another, for example after its price has changed.
+     *
+     * @param oldKey the key the property is currently indexed under
+     * @param newKey the key the property should be indexed under
+     * @param value the property to move
+     */
+    public void update(final K oldKey, final K newKey, final V value)
+    {
+        if(remove(oldKey, value))
+        {
+            add(newKey, value);
+        }
+    }
+
+    /**
+     * Returns the number of properties in the index.
+     *
+     * @return the number of properties in the index
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the lowest key in the index.
+     *
+     * @return the lowest key, or null if the index is empty
+     */
+    public K firstKey()
+    {
+        return buckets.isEmpty() ? null : buckets.firstKey();
+    }
+
+    /**
+     * Returns the highest key in the index.
+     *
+     * @return the highest key, or null if the index is empty
+     */
+    public K lastKey()
+    {
+        return buckets.isEmpty() ? null : buckets.lastKey();
+    }
+
+    /**
+     * Retrieves the properties whose key falls within a specified range, inclusive,
+     * in key order. The matching properties are copied exactly once, straight into the result array.
+     *
+     * @param min the minimum key (inclusive)
+     * @param max the maximum key (inclusive)
+     * @param generator a function which creates an array of the requested length
+     * @return an array of the matching properties in key order, empty if none found
+     */
+    public V[] toArray(final K min, final K max, final IntFunction<V[]> generator)
+    {
+        final NavigableMap<K, NavigableMap<String, V>> range;
+        final V[] result;
+
+        int count;
+        int index;
+
+        if(min.compareTo(max) > 0)
+        {
+            return generator.apply(0);
+        }
+
+        range = buckets.subMap(min, true, max, true);
+
+        // Summing bucket sizes only touches distinct keys, not every property
+        count = 0;
+        for(final Map<String, V> bucket : range.values())
+        {
+            count += bucket.size();
+        }
+
+        result = generator.apply(count);
+        index = 0;
+
+        for(final Map<String, V> bucket : range.values())
+        {
+            for(final V value : bucket.values())
+            {
+                result[index++] = value;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the properties whose key falls within a specified range, inclusive.
+     * Counting stops as soon as the count exceeds the limit, so callers which only need to know
+     * whether a range is smaller than some threshold do not pay for the whole range.
+     *
+     * @param min the minimum key (inclusive)
+     * @param max the maximum key (inclusive)
+     * @param limit the count above which counting may stop
+     * @return the number of matching properties, or a number greater than limit if there are more than limit
+     */
+    public long count(final K min, final K max, final long limit)
+    {
+        long count;
+
+        if(min.compareTo(max) > 0)
+        {
+            return 0;
+        }
+
+        count = 0;
+        for(final Map<String, V> bucket : buckets.subMap(min, true, max, true).values())
+        {
+            count += bucket.size();
+            if(count > limit)
+            {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns a lazy view of the properties whose key falls within a specified range, inclusive,
+     * in key order. Nothing is copied; the view reflects later changes to the index.
+     *
+     * @param min the minimum key (inclusive)
+     * @param max the maximum key (inclusive)
+     * @return the matching properties in key order
+     */
+    public Iterable<V> between(final K min, final K max)
+    {
+        if(min.compareTo(max) > 0)
+        {
+            return Collections.emptyList();
+        }
+
+        return () -> buckets.subMap(min, true, max, true)
+                            .values()
+                            .stream()
+                            .flatMap(bucket -> bucket.values().stream())
+                            .iterator();
+    }
+
+    /**
+     * Returns a lazy view of the properties which come after a position and whose key is at most a maximum,
+     * in key order. A position is a key and a property ID, which need not still be in the index, so a
+     * caller can resume a walk from the last property it saw even after that property has been removed.
+     *
+     * @param key the key of the position
+     * @param propertyId the property ID of the position; properties under the same key with a greater ID follow it
+     * @param max the maximum key (inclusive)
+     * @return the properties after the position, in key order
+     */
+    public Iterable<V> after(final K key, final String propertyId, final K max)
+    {
+        if(key.compareTo(max) > 0)
+        {
+            return Collections.emptyList();
+        }
+
+        return () -> buckets.subMap(key, true, max, true)
+                            .entrySet()
+                            .stream()
+                            .flatMap(entry -> (entry.getKey().compareTo(key) == 0 ?
+                                               entry.getValue().tailMap(propertyId, false) :
+                                               entry.getValue()).values().stream())
+                            .iterator();
+    }
+
+    /**
+     * Returns a lazy view of the properties whose key falls within a specified range, inclusive,
+     * in descending key order. Within a key, properties are in descending order of property ID.
+     *
+     * @param min the minimum key (inclusive)
+     * @param max the maximum key (inclusive)
+     * @return the matching properties in descending key order
+     */
+    public Iterable<V> descending(final K min, final K max)
+    {
+        if(min.compareTo(max) > 0)
+        {
+            return Collections.emptyList();
+        }
+
+        return () -> buckets.subMap(min, true, max, true)
+                            .descendingMap()
+                            .values()
+                            .stream()
+                            .flatMap(bucket -> bucket.descendingMap().values().stream())
+                            .iterator();
+    }
+}
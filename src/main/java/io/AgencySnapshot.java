@@ -0,0 +1,376 @@
+package main.java.io;
+
+import main.java.Agency;
+import main.java.address.Address;
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+import main.java.property.Retail;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A class which saves the properties of an agency to a compact binary file and restores them from it.
+ * Restoring from a snapshot memory-maps the file and reads fixed-width binary fields, so it is much
+ * faster than parsing the original text files.
+ *
+ * <p>Every distinct string and every distinct address is stored once, and properties refer to them
+ * by index, so restored properties which share an address also share the Address object.
+ * The file layout, all numbers big-endian, is:
+ * <pre>
+ * int magic, int version, int agency name string
+ * int string count,   then per string:   int byte length, UTF-8 bytes
+ * int address count,  then per address:  int unit number string, int street number,
+ *                                         int street name string, int postal code string, int city string
+ * int property count, then per property: byte type, double price, int property ID string, int address,
+ *                                         then int bedrooms and byte flags for a residence,
+ *                                         byte flags for a commercial property,
+ *                                         or int square footage and byte flags for a retail property
+ * int CRC32 of every preceding byte
+ * </pre>
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class AgencySnapshot
+{
+    /**
+     * The version of the file layout written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x56565350;
+    private static final int CHECKSUM_LENGTH = Integer.BYTES;
+
+    private static final int FIRST_FLAG = 1;
+    private static final int SECOND_FLAG = 2;
+
+    /**
+     * Writes a snapshot of every property of an agency to a file. The snapshot is written to a
+     * temporary file first, forced to disk and then moved into place, and the move itself is forced by
+     * syncing the directory, so a crash never leaves a partial snapshot behind and a returned call means
+     * the snapshot is durable.
+     * The properties are copied once at the start, so an agency which changes while it is being saved
+     * still yields a consistent snapshot of the moment it was copied.
+     *
+     * @param agency the agency to save
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final Agency agency, final File file) throws IOException
+    {
+        final List<Property> properties;
+        final Map<String, Integer> stringIds;
+        final List<String> strings;
+        final Map<Address, Integer> addressIds;
+        final List<Address> addresses;
+        final int nameId;
+        final Path temporary;
+
+        properties = new ArrayList<>(agency.getProperties());
+        stringIds = new HashMap<>();
+        strings = new ArrayList<>();
+        addressIds = new HashMap<>();
+        addresses = new ArrayList<>();
+
+        nameId = intern(agency.getName(), stringIds, strings);
+        for(final Property property : properties)
+        {
+            final Address address;
+            address = property.getAddress();
+
+            intern(property.getPropertyId(), stringIds, strings);
+            if(!addressIds.containsKey(address))
+            {
+                addressIds.put(address, addresses.size());
+                addresses.add(address);
+                intern(address.unitNumber(), stringIds, strings);
+                intern(address.streetName(), stringIds, strings);
+                intern(address.postalCode(), stringIds, strings);
+                intern(address.city(), stringIds, strings);
+            }
+        }
+
+        temporary = file.toPath().resolveSibling(file.getName() + ".tmp");
+
+        try(final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                         StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            final OutputStream fileOut;
+            final CheckedOutputStream checked;
+            final DataOutputStream out;
+
+            fileOut = Channels.newOutputStream(channel);
+            checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), new CRC32());
+            out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nameId);
+
+            out.writeInt(strings.size());
+            for(final String string : strings)
+            {
+                final byte[] bytes;
+                bytes = string.getBytes(StandardCharsets.UTF_8);
+
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(addresses.size());
+            for(final Address address : addresses)
+            {
+                out.writeInt(stringIds.get(address.unitNumber()));
+                out.writeInt(address.streetNumber());
+                out.writeInt(stringIds.get(address.streetName()));
+                out.writeInt(stringIds.get(address.postalCode()));
+                out.writeInt(stringIds.get(address.city()));
+            }
+
+            out.writeInt(properties.size());
+            for(final Property property : properties)
+            {
+                out.writeByte(property.getType().ordinal());
+                out.writeDouble(property.getPriceUsd());
+                out.writeInt(stringIds.get(property.getPropertyId()));
+                out.writeInt(addressIds.get(property.getAddress()));
+
+                if(property instanceof Residence residence)
+                {
+                    out.writeInt(residence.getNumberOfBedrooms());
+                    out.writeByte(flags(residence.hasSwimmingPool(), residence.hasStrata()));
+                }
+                else if(property instanceof Commercial commercial)
+                {
+                    out.writeByte(flags(commercial.hasLoadingDock(), commercial.hasHighwayAccess()));
+                }
+                else if(property instanceof Retail retail)
+                {
+                    out.writeInt(retail.getSquareFootage());
+                    out.writeByte(flags(retail.isCustomerParking(), false));
+                }
+            }
+
+            // The checksum itself is written outside the checked stream
+            out.flush();
+            new DataOutputStream(fileOut).writeInt((int) checked.getChecksum().getValue());
+
+            // The contents must be on disk before the rename can be, or a crash could leave an empty snapshot in place
+            channel.force(true);
+        }
+
+        Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.toPath().toAbsolutePath().getParent());
+    }
+
+    /*
+     * Forces a directory to disk, so that a file just renamed into it survives a crash.
+     * Some platforms cannot open a directory for syncing; there the rename is left to the file system.
+     */
+    static void syncDirectory(final Path directory) throws IOException
+    {
+        final FileChannel channel;
+
+        try
+        {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        }
+        catch(final IOException e)
+        {
+            return;
+        }
+
+        try(channel)
+        {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Restores an agency from a snapshot file.
+     *
+     * @param file the file to read
+     * @return a new Agency holding every property in the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot, has an unsupported version or is corrupt
+     */
+    public static Agency read(final File file) throws IOException
+    {
+        try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final MappedByteBuffer buffer;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            try
+            {
+                return read(buffer, file);
+            }
+            catch(final BufferUnderflowException | IndexOutOfBoundsException e)
+            {
+                throw new IOException("Corrupt snapshot: " + file, e);
+            }
+        }
+    }
+
+    /*
+     * Checks and decodes a whole snapshot held in a buffer.
+     */
+    private static Agency read(final ByteBuffer buffer, final File file) throws IOException
+    {
+        final CRC32 crc;
+        final int version;
+        final int nameId;
+        final String[] strings;
+        final Address[] addresses;
+        final Agency agency;
+        final int propertyCount;
+
+        byte[] scratch;
+
+        if(buffer.limit() < 3 * Integer.BYTES + CHECKSUM_LENGTH || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a snapshot: " + file);
+        }
+
+        crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(buffer.limit() - CHECKSUM_LENGTH));
+        if((int) crc.getValue() != buffer.getInt(buffer.limit() - CHECKSUM_LENGTH))
+        {
+            throw new IOException("Corrupt snapshot: " + file);
+        }
+
+        buffer.position(Integer.BYTES);
+        version = buffer.getInt();
+        if(version < 1 || version > VERSION)
+        {
+            throw new IOException("Unsupported snapshot version " + version + ": " + file);
+        }
+
+        nameId = buffer.getInt();
+
+        strings = new String[buffer.getInt()];
+        scratch = new byte[0];
+        for(int i = 0; i < strings.length; i++)
+        {
+            final int length;
+            length = buffer.getInt();
+
+            if(scratch.length < length)
+            {
+                scratch = new byte[length];
+            }
+
+            buffer.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        addresses = new Address[buffer.getInt()];
+        for(int i = 0; i < addresses.length; i++)
+        {
+            addresses[i] = new Address(strings[buffer.getInt()],
+                                       buffer.getInt(),
+                                       strings[buffer.getInt()],
+                                       strings[buffer.getInt()],
+                                       strings[buffer.getInt()]);
+        }
+
+        agency = new Agency(strings[nameId]);
+        propertyCount = buffer.getInt();
+
+        for(int i = 0; i < propertyCount; i++)
+        {
+            final PropertyType type;
+            final double priceUsd;
+            final String propertyId;
+            final Address address;
+
+            type = PropertyType.values()[buffer.get()];
+            priceUsd = buffer.getDouble();
+            propertyId = strings[buffer.getInt()];
+            address = addresses[buffer.getInt()];
+
+            switch(type)
+            {
+                case RESIDENCE ->
+                {
+                    final int bedrooms;
+                    final byte flags;
+
+                    bedrooms = buffer.getInt();
+                    flags = buffer.get();
+                    agency.addProperty(new Residence(priceUsd, address, bedrooms,
+                                                     (flags & FIRST_FLAG) != 0, propertyId,
+                                                     (flags & SECOND_FLAG) != 0));
+                }
+                case COMMERCIAL ->
+                {
+                    final byte flags;
+                    flags = buffer.get();
+                    agency.addProperty(new Commercial(priceUsd, address, propertyId,
+                                                      (flags & FIRST_FLAG) != 0, (flags & SECOND_FLAG) != 0));
+                }
+                case RETAIL ->
+                {
+                    final int squareFootage;
+                    final byte flags;
+
+                    squareFootage = buffer.getInt();
+                    flags = buffer.get();
+                    agency.addProperty(new Retail(priceUsd, address, propertyId,
+                                                  squareFootage, (flags & FIRST_FLAG) != 0));
+                }
+            }
+        }
+
+        return agency;
+    }
+
+    /*
+     * Returns the index of a string in the string table, adding it if it is new.
+     */
+    private static int intern(final String string,
+                              final Map<String, Integer> stringIds,
+                              final List<String> strings)
+    {
+        final Integer id;
+        id = stringIds.get(string);
+
+        if(id != null)
+        {
+            return id;
+        }
+
+        stringIds.put(string, strings.size());
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+    /*
+     * Packs two booleans into the low bits of a byte.
+     */
+    private static int flags(final boolean first, final boolean second)
+    {
+        return (first ? FIRST_FLAG : 0) | (second ? SECOND_FLAG : 0);
+    }
+}
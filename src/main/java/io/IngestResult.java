@@ -0,0 +1,16 @@
+package main.java.io;
+
+/**
+ * Represents the outcome of a lockstep load of an address file and a property file.
+ * The offsets tell a {@link ListingTailer} where to start so that it only reads what the load did not.
+ *
+ * @param count the number of properties read
+ * @param addressOffset the offset just after the last address paired with a property
+ * @param propertyOffset the offset just after the last property read
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public record IngestResult(long count, long addressOffset, long propertyOffset)
+{
+}
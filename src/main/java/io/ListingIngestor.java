@@ -0,0 +1,104 @@
+package main.java.io;
+
+import main.java.address.Address;
+import main.java.address.AddressPool;
+import main.java.address.AddressReader;
+import main.java.property.Property;
+import main.java.property.PropertyReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A class which loads listings by reading the address file and the property file in lockstep.
+ * Each property record is paired with the address record at the same position as soon as both
+ * have been read, so no intermediate list of addresses or lines is ever held and memory use
+ * during a load does not grow with the size of the files.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class ListingIngestor
+{
+    /**
+     * Reads both files in lockstep and hands each Residence, Commercial or Retail property to a sink,
+     * in file order, as soon as it has been built.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param sink the consumer which receives each Property
+     * @return the number of properties read
+     * @throws IOException if either file cannot be read
+     * @throws IllegalArgumentException if a property has no matching address or an unknown type
+     */
+    public static long ingest(final File addressFile,
+                              final File propertyFile,
+                              final Consumer<Property> sink) throws IOException
+    {
+        return ingestWithOffsets(addressFile, propertyFile, sink).count();
+    }
+
+    /**
+     * Reads both files in lockstep as ingest does, and also reports how far into each file the load read.
+     * Addresses after the last property are left unread, so a tailer started at the reported offsets pairs
+     * them with properties appended later. The last line of each file is read even without a line feed,
+     * so nothing may be writing to the files during the load.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param sink the consumer which receives each Property
+     * @return the number of properties read and the offsets just after the last records read
+     * @throws IOException if either file cannot be read
+     * @throws IllegalArgumentException if a property has no matching address or an unknown type
+     */
+    public static IngestResult ingestWithOffsets(final File addressFile,
+                                                 final File propertyFile,
+                                                 final Consumer<Property> sink) throws IOException
+    {
+        return ingestWithOffsets(addressFile, propertyFile, new AddressPool(), sink);
+    }
+
+    /**
+     * Reads both files in lockstep as ingestWithOffsets does, building addresses through a pool supplied
+     * by the caller, who can turn on address sharing beforehand and read the bytes saved afterwards.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param pool the pool which supplies street names and cities
+     * @param sink the consumer which receives each Property
+     * @return the number of properties read and the offsets just after the last records read
+     * @throws IOException if either file cannot be read
+     * @throws IllegalArgumentException if a property has no matching address or an unknown type
+     */
+    public static IngestResult ingestWithOffsets(final File addressFile,
+                                                 final File propertyFile,
+                                                 final AddressPool pool,
+                                                 final Consumer<Property> sink) throws IOException
+    {
+        long count;
+
+        count = 0;
+
+        try(final PipeRecordReader addressReader = PipeRecordReader.open(addressFile);
+            final PipeRecordReader propertyReader = PipeRecordReader.open(propertyFile))
+        {
+            while(propertyReader.next())
+            {
+                final Address address;
+
+                if(!addressReader.next())
+                {
+                    throw new IllegalArgumentException("Invalid property data: no address for line " +
+                                                       propertyReader.getLineNumber());
+                }
+
+                address = AddressReader.parseAddress(addressReader, pool);
+                sink.accept(PropertyReader.parseProperty(propertyReader, address));
+                count++;
+            }
+
+            return new IngestResult(count, addressReader.getOffset(), propertyReader.getOffset());
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package main.java.io;
+
+import main.java.address.Address;
+import main.java.address.AddressPool;
+import main.java.address.AddressReader;
+import main.java.property.Property;
+import main.java.property.PropertyReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows an address file and a property file which are appended to while they are being read.
+ * Each call to {@link #poll()} reads only the bytes added since the last call, parses the complete
+ * lines among them and hands the new properties to a sink, so new listings can be applied to a
+ * running agency without reloading either file. A line is only read once its line feed has been
+ * written, so a half-written line is picked up whole on a later poll. New bytes are read in windows
+ * of at most {@value #WINDOW_SIZE} bytes, so a large backlog does not have to fit in memory at once.
+ *
+ * <p>The property on record N of the property file is given the address on record N of the address
+ * file, as in {@link ListingIngestor}. If one file runs ahead of the other, its extra records wait
+ * until their partners arrive. A tailer can start from the offsets reported by
+ * {@link ListingIngestor#ingestWithOffsets}, so the initial load is done by the lockstep ingestor
+ * and the tailer only reads what is appended after it.
+ *
+ * <p>{@link #run()} polls whenever the file system reports a change to either file, and at least
+ * every {@value #POLL_INTERVAL_MILLIS} milliseconds in case it does not.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class ListingTailer implements Runnable, Closeable
+{
+    /**
+     * The longest time run waits between polls when no change is reported.
+     */
+    public static final long POLL_INTERVAL_MILLIS = 250;
+
+    /**
+     * The largest number of bytes read from either file at once, unless a single line is longer.
+     */
+    public static final int WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    // Addresses waiting for their properties are only read ahead up to about this many
+    private static final int MAX_PENDING_ADDRESSES = 64 * 1024;
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final File addressFile;
+    private final File propertyFile;
+    private final AddressPool pool;
+    private final Consumer<Property> sink;
+    private final Queue<Address> pendingAddresses;
+
+    private ByteBuffer buffer;
+    private long addressOffset;
+    private long propertyOffset;
+    private volatile boolean closed;
+    private volatile WatchService watcher;
+    private String lastFailure;
+
+    /**
+     * Constructs a new ListingTailer which reads both files from the start.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param sink the consumer which receives each new Property, on the thread which polls
+     */
+    public ListingTailer(final File addressFile,
+                         final File propertyFile,
+                         final Consumer<Property> sink)
+    {
+        this(addressFile, propertyFile, sink, 0, 0);
+    }
+
+    /**
+     * Constructs a new ListingTailer which reads both files from the specified offsets, such as
+     * those reported by {@link ListingIngestor#ingestWithOffsets} after the initial load.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param sink the consumer which receives each new Property, on the thread which polls
+     * @param addressOffset the offset of the first unread byte of the address file
+     * @param propertyOffset the offset of the first unread byte of the property file
+     * @throws IllegalArgumentException if either offset is negative
+     */
+    public ListingTailer(final File addressFile,
+                         final File propertyFile,
+                         final Consumer<Property> sink,
+                         final long addressOffset,
+                         final long propertyOffset)
+    {
+        this(addressFile, propertyFile, null, sink, addressOffset, propertyOffset);
+    }
+
+    /**
+     * Constructs a new ListingTailer which reads both files from the specified offsets and builds every
+     * new address through a pool supplied by the caller, such as the pool of the initial load. The pool
+     * keeps every street name and city the tailer reads for as long as the caller keeps it.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties, one per address
+     * @param pool the pool which supplies street names and cities, or null for a new pool per window read
+     * @param sink the consumer which receives each new Property, on the thread which polls
+     * @param addressOffset the offset of the first unread byte of the address file
+     * @param propertyOffset the offset of the first unread byte of the property file
+     * @throws IllegalArgumentException if either offset is negative
+     */
+    public ListingTailer(final File addressFile,
+                         final File propertyFile,
+                         final AddressPool pool,
+                         final Consumer<Property> sink,
+                         final long addressOffset,
+                         final long propertyOffset)
+    {
+        if(addressOffset < 0 || propertyOffset < 0)
+        {
+            throw new IllegalArgumentException("Invalid offsets: " + addressOffset + ", " + propertyOffset);
+        }
+
+        if(sink == null)
+        {
+            throw new NullPointerException("Invalid sink: null");
+        }
+
+        this.addressFile = addressFile;
+        this.propertyFile = propertyFile;
+        this.pool = pool;
+        this.sink = sink;
+        this.pendingAddresses = new ArrayDeque<>();
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.addressOffset = addressOffset;
+        this.propertyOffset = propertyOffset;
+    }
+
+    /**
+     * Reads whatever complete lines have been appended to either file since the last poll and hands
+     * each new property to the sink, in file order.
+     *
+     * @return the number of properties handed to the sink
+     * @throws IOException if either file cannot be read or has become shorter than the part already read
+     * @throws IllegalArgumentException if a new line cannot be parsed; the poll can be retried once it is fixed
+     */
+    public synchronized int poll() throws IOException
+    {
+        long addressStart;
+        long propertyStart;
+        int count;
+
+        count = 0;
+
+        // Read window after window until neither file has anything more to give
+        do
+        {
+            addressStart = addressOffset;
+            propertyStart = propertyOffset;
+            count += readWindow();
+        }
+        while(addressOffset != addressStart || propertyOffset != propertyStart);
+
+        return count;
+    }
+
+    /*
+     * Reads one window of new lines from each file and hands the new properties to the sink.
+     */
+    private int readWindow() throws IOException
+    {
+        final ByteBuffer propertyBytes;
+        final PipeRecordReader propertyReader;
+        final List<Property> properties;
+
+        if(pendingAddresses.size() < MAX_PENDING_ADDRESSES)
+        {
+            final ByteBuffer addressBytes;
+            addressBytes = readNewLines(addressFile, addressOffset);
+
+            if(addressBytes != null)
+            {
+                parseAddresses(addressBytes);
+            }
+        }
+
+        if(pendingAddresses.isEmpty())
+        {
+            return 0;
+        }
+
+        propertyBytes = readNewLines(propertyFile, propertyOffset);
+        if(propertyBytes == null)
+        {
+            return 0;
+        }
+
+        // Only consume as many property lines as there are addresses to pair them with
+        propertyBytes.limit(endOfRecords(propertyBytes, pendingAddresses.size()));
+        propertyReader = new PipeRecordReader(propertyBytes);
+        properties = new ArrayList<>();
+
+        for(final Address address : pendingAddresses)
+        {
+            if(!propertyReader.next())
+            {
+                break;
+            }
+            properties.add(PropertyReader.parseProperty(propertyReader, address));
+        }
+
+        for(int i = 0; i < properties.size(); i++)
+        {
+            pendingAddresses.remove();
+        }
+        propertyOffset += propertyBytes.limit();
+
+        properties.forEach(sink);
+        return properties.size();
+    }
+
+    /*
+     * Parses a window of address lines and queues the addresses for their properties.
+     */
+    private void parseAddresses(final ByteBuffer addressBytes) throws IOException
+    {
+        final PipeRecordReader addressReader;
+        final AddressPool windowPool;
+        final List<Address> addresses;
+
+        addressReader = new PipeRecordReader(addressBytes);
+        windowPool = pool == null ? new AddressPool() : pool;
+        addresses = new ArrayList<>();
+
+        // Nothing is kept until every new line has parsed, so a failed poll can simply be retried
+        while(addressReader.next())
+        {
+            addresses.add(AddressReader.parseAddress(addressReader, windowPool));
+        }
+        pendingAddresses.addAll(addresses);
+        addressOffset += addressBytes.limit();
+    }
+
+    /**
+     * Polls whenever either file changes until the tailer is closed. A line which cannot be parsed is
+     * reported on standard error and retried on every later poll, so the tailer carries on once the
+     * line has been fixed; the same failure is only reported once.
+     *
+     * @throws UncheckedIOException if the files cannot be watched or read
+     */
+    @Override
+    public void run()
+    {
+        try(final WatchService service = FileSystems.getDefault().newWatchService())
+        {
+            final Path addressDirectory;
+            final Path propertyDirectory;
+
+            watcher = service;
+            addressDirectory = directoryOf(addressFile);
+            propertyDirectory = directoryOf(propertyFile);
+
+            addressDirectory.register(service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            if(!propertyDirectory.equals(addressDirectory))
+            {
+                propertyDirectory.register(service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+
+            while(!closed)
+            {
+                final WatchKey key;
+                key = service.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if(key != null)
+                {
+                    key.pollEvents();
+                    key.reset();
+                }
+
+                if(!closed)
+                {
+                    try
+                    {
+                        poll();
+                        lastFailure = null;
+                    }
+                    catch(final IllegalArgumentException e)
+                    {
+                        final String failure;
+                        failure = String.valueOf(e.getMessage());
+
+                        if(!failure.equals(lastFailure))
+                        {
+                            lastFailure = failure;
+                            System.err.println("Could not read new listings: " + failure);
+                        }
+                    }
+                }
+            }
+        }
+        catch(final ClosedWatchServiceException e)
+        {
+            // The tailer was closed while waiting for a change
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops a running tailer. A poll already in progress is allowed to finish.
+     *
+     * @throws IOException if the file watcher cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final WatchService service;
+
+        closed = true;
+        service = watcher;
+
+        if(service != null)
+        {
+            service.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the address file which have been read.
+     *
+     * @return the offset of the first unread byte of the address file
+     */
+    public synchronized long getAddressOffset()
+    {
+        return addressOffset;
+    }
+
+    /**
+     * Returns the number of bytes of the property file which have been read.
+     *
+     * @return the offset of the first unread byte of the property file
+     */
+    public synchronized long getPropertyOffset()
+    {
+        return propertyOffset;
+    }
+
+    /*
+     * Reads the bytes of a file from an offset up to and including the last line feed within one window.
+     * The window only grows if it holds no line feed at all. Returns null if there is no complete line to read.
+     */
+    private ByteBuffer readNewLines(final File file, final long offset) throws IOException
+    {
+        try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final long size;
+
+            int window;
+
+            size = channel.size();
+            if(size < offset)
+            {
+                throw new IOException("File was truncated: " + file);
+            }
+
+            window = WINDOW_SIZE;
+
+            while(size > offset)
+            {
+                final int length;
+
+                int end;
+
+                length = (int) Math.min(size - offset, window);
+                if(buffer.capacity() < length)
+                {
+                    buffer = ByteBuffer.allocate(Math.max(length, Math.min(buffer.capacity() * 2, window)));
+                }
+
+                buffer.clear().limit(length);
+                while(buffer.hasRemaining())
+                {
+                    if(channel.read(buffer, offset + buffer.position()) < 0)
+                    {
+                        break;
+                    }
+                }
+                buffer.flip();
+
+                end = buffer.limit();
+                while(end > 0 && buffer.get(end - 1) != LINE_FEED)
+                {
+                    end--;
+                }
+
+                if(end > 0)
+                {
+                    return buffer.limit(end).slice();
+                }
+
+                // The rest of the file is one unfinished line, which is read once its line feed is written
+                if(length == size - offset)
+                {
+                    return null;
+                }
+
+                if(window > Integer.MAX_VALUE / 2)
+                {
+                    throw new IOException("Line too long at offset " + offset + ": " + file);
+                }
+                window *= 2;
+            }
+
+            return null;
+        }
+    }
+
+    /*
+     * Returns the position just after the line ending the given number of non-blank lines, or the
+     * end of the buffer if it holds fewer. Blank lines are skipped the same way PipeRecordReader skips them.
+     */
+    private static int endOfRecords(final ByteBuffer bytes, final int records)
+    {
+        int remaining;
+        int lineStart;
+
+        remaining = records;
+        lineStart = 0;
+
+        for(int i = 0; i < bytes.limit() && remaining > 0; i++)
+        {
+            if(bytes.get(i) == LINE_FEED)
+            {
+                final int lineEnd;
+                lineEnd = i > lineStart && bytes.get(i - 1) == CARRIAGE_RETURN ? i - 1 : i;
+
+                if(lineEnd > lineStart)
+                {
+                    remaining--;
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        return remaining == 0 ? lineStart : bytes.limit();
+    }
+
+    /*
+     * Returns the directory holding a file, which is the current directory for a bare file name.
+     */
+    private static Path directoryOf(final File file)
+    {
+        return file.getAbsoluteFile().toPath().getParent();
+    }
+}
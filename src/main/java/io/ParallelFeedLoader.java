@@ -0,0 +1,347 @@
+package main.java.io;
+
+import main.java.address.Address;
+import main.java.address.AddressPool;
+import main.java.address.AddressReader;
+import main.java.property.Property;
+import main.java.property.PropertyReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Loads large address and property files in parallel.
+ * Both files are memory-mapped in line-aligned chunks which are parsed on a fork-join pool.
+ * The property on record N of the property file is still given the address on record N of the
+ * address file, and properties are handed to the sink in file order, so the result is the same
+ * as reading the files one line at a time.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class ParallelFeedLoader
+{
+    private static final int DEFAULT_MIN_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int BOUNDARY_SCAN_SIZE = 4096;
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+
+    /**
+     * Constructs a new ParallelFeedLoader which parses on the common fork-join pool.
+     */
+    public ParallelFeedLoader()
+    {
+        this(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new ParallelFeedLoader with the specified parameters.
+     *
+     * @param pool the pool to parse on
+     * @param minChunkSize the smallest number of bytes worth handing to a separate task
+     * @throws IllegalArgumentException if minChunkSize is not positive
+     */
+    public ParallelFeedLoader(final ForkJoinPool pool, final int minChunkSize)
+    {
+        if(minChunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Invalid chunk size: " + minChunkSize);
+        }
+
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * Loads every property from the property file, paired by position with the addresses in the
+     * address file, and hands them to a sink in file order. The sink is only called from the calling thread.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties
+     * @param sink the consumer which receives each Property
+     * @throws IOException if either file cannot be read
+     * @throws IndexOutOfBoundsException if there are more properties than addresses
+     */
+    public void load(final File addressFile,
+                     final File propertyFile,
+                     final Consumer<Property> sink) throws IOException
+    {
+        load(addressFile, propertyFile, new AddressPool(), sink);
+    }
+
+    /**
+     * Loads every property as load does, building addresses through a pool supplied by the caller, who can
+     * turn on address sharing beforehand and read the bytes saved afterwards. The pool is used from several threads.
+     *
+     * @param addressFile the file of addresses
+     * @param propertyFile the file of properties
+     * @param addressPool the pool which supplies street names and cities
+     * @param sink the consumer which receives each Property
+     * @throws IOException if either file cannot be read
+     * @throws IndexOutOfBoundsException if there are more properties than addresses
+     */
+    public void load(final File addressFile,
+                     final File propertyFile,
+                     final AddressPool addressPool,
+                     final Consumer<Property> sink) throws IOException
+    {
+        try(final FileChannel addressChannel = FileChannel.open(addressFile.toPath(), StandardOpenOption.READ);
+            final FileChannel propertyChannel = FileChannel.open(propertyFile.toPath(), StandardOpenOption.READ))
+        {
+            final List<MappedByteBuffer> addressChunks;
+            final List<MappedByteBuffer> propertyChunks;
+            final List<Address> addresses;
+            final List<Callable<Integer>> countTasks;
+            final List<Callable<List<Property>>> parseTasks;
+            final List<Integer> counts;
+
+            int firstRecord;
+
+            addressChunks = map(addressChannel);
+            propertyChunks = map(propertyChannel);
+
+            addresses = new ArrayList<>();
+            for(final List<Address> chunk : invokeAll(addressTasks(addressChunks, addressPool)))
+            {
+                addresses.addAll(chunk);
+            }
+
+            // Each property chunk needs to know how many records come before it to find its addresses
+            countTasks = new ArrayList<>();
+            for(final MappedByteBuffer chunk : propertyChunks)
+            {
+                countTasks.add(() -> countRecords(chunk));
+            }
+            counts = invokeAll(countTasks);
+
+            parseTasks = new ArrayList<>();
+            firstRecord = 0;
+            for(int i = 0; i < propertyChunks.size(); i++)
+            {
+                final MappedByteBuffer chunk;
+                final int offset;
+
+                chunk = propertyChunks.get(i);
+                offset = firstRecord;
+
+                parseTasks.add(() -> parseProperties(chunk, addresses, offset));
+                firstRecord += counts.get(i);
+            }
+
+            for(final List<Property> chunk : invokeAll(parseTasks))
+            {
+                chunk.forEach(sink);
+            }
+        }
+    }
+
+    /*
+     * Creates one task per address chunk which parses the chunk into Address objects, sharing one pool for the load.
+     */
+    private static List<Callable<List<Address>>> addressTasks(final List<MappedByteBuffer> chunks,
+                                                              final AddressPool addressPool)
+    {
+        final List<Callable<List<Address>>> tasks;
+        tasks = new ArrayList<>();
+
+        for(final MappedByteBuffer chunk : chunks)
+        {
+            tasks.add(() ->
+            {
+                final List<Address> addresses;
+                final PipeRecordReader reader;
+
+                addresses = new ArrayList<>();
+                reader = new PipeRecordReader(chunk);
+
+                while(reader.next())
+                {
+                    addresses.add(AddressReader.parseAddress(reader, addressPool));
+                }
+
+                return addresses;
+            });
+        }
+
+        return tasks;
+    }
+
+    /*
+     * Parses one property chunk whose first record pairs with the address at the given offset.
+     */
+    private static List<Property> parseProperties(final ByteBuffer chunk,
+                                                  final List<Address> addresses,
+                                                  final int offset) throws IOException
+    {
+        final List<Property> properties;
+        final PipeRecordReader reader;
+
+        int addressesIndex;
+
+        properties = new ArrayList<>();
+        reader = new PipeRecordReader(chunk);
+        addressesIndex = offset;
+
+        while(reader.next())
+        {
+            properties.add(PropertyReader.parseProperty(reader, addresses.get(addressesIndex)));
+            addressesIndex++;
+        }
+
+        return properties;
+    }
+
+    /*
+     * Counts the non-blank lines of a chunk, which is the number of records PipeRecordReader will return.
+     */
+    private static int countRecords(final ByteBuffer chunk)
+    {
+        int count;
+        int lineLength;
+
+        count = 0;
+        lineLength = 0;
+
+        for(int i = chunk.position(); i < chunk.limit(); i++)
+        {
+            final byte b = chunk.get(i);
+
+            if(b == LINE_FEED)
+            {
+                count += lineLength > 0 ? 1 : 0;
+                lineLength = 0;
+            }
+            else if(b != CARRIAGE_RETURN || (i + 1 < chunk.limit() && chunk.get(i + 1) != LINE_FEED))
+            {
+                lineLength++;
+            }
+        }
+
+        return count + (lineLength > 0 ? 1 : 0);
+    }
+
+    /*
+     * Splits a file into chunks which each end just after a line feed, or at the end of the file, and maps them.
+     */
+    private List<MappedByteBuffer> map(final FileChannel channel) throws IOException
+    {
+        final List<MappedByteBuffer> chunks;
+        final long size;
+        final long chunkSize;
+
+        long start;
+
+        chunks = new ArrayList<>();
+        size = channel.size();
+        chunkSize = Math.min(Integer.MAX_VALUE - BOUNDARY_SCAN_SIZE,
+                             Math.max(minChunkSize, size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD)));
+
+        start = 0;
+        while(start < size)
+        {
+            final long end;
+            end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size);
+
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+
+        return chunks;
+    }
+
+    /*
+     * Returns the position just after the first line feed at or after a position, or the size of the file if there is none.
+     */
+    private static long nextLineStart(final FileChannel channel, final long from, final long size) throws IOException
+    {
+        final ByteBuffer scan;
+        long position;
+
+        scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        position = from;
+
+        while(position < size)
+        {
+            final int read;
+
+            scan.clear();
+            read = channel.read(scan, position);
+            if(read <= 0)
+            {
+                break;
+            }
+
+            for(int i = 0; i < read; i++)
+            {
+                if(scan.get(i) == LINE_FEED)
+                {
+                    return position + i + 1;
+                }
+            }
+
+            position += read;
+        }
+
+        return size;
+    }
+
+    /*
+     * Runs tasks on the pool and returns their results in task order, unwrapping any failure.
+     */
+    private <T> List<T> invokeAll(final List<Callable<T>> tasks) throws IOException
+    {
+        final List<T> results;
+        results = new ArrayList<>(tasks.size());
+
+        try
+        {
+            for(final Future<T> future : pool.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        }
+        catch(final ExecutionException e)
+        {
+            final Throwable cause;
+            cause = e.getCause();
+
+            if(cause instanceof IOException ioException)
+            {
+                throw ioException;
+            }
+            if(cause instanceof UncheckedIOException uncheckedIOException)
+            {
+                throw uncheckedIOException.getCause();
+            }
+            if(cause instanceof RuntimeException runtimeException)
+            {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,523 @@
+package main.java.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads pipe-delimited records, one per line, straight from bytes.
+ * Each call to next moves to the following record and locates its fields in place; numbers and
+ * booleans are then parsed from the bytes without creating a String or using a regular expression.
+ * Only the text fields a caller asks for with getString are turned into Strings.
+ * Blank lines are skipped, and lines may end with either a line feed or a carriage return and line feed.
+ * Asking for a field the current record does not have throws IllegalArgumentException, as a malformed number does.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class PipeRecordReader implements Closeable
+{
+    private static final byte DELIMITER = '|';
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_MAX_FIELDS = 8;
+
+    // Powers of ten which are exact as doubles, used by the fast path of getDouble
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int MAX_DIGITS = 18;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private byte[] scratch;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private long discarded;
+
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private int fieldCount;
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+
+    /**
+     * Constructs a new PipeRecordReader which reads from a channel through an internal buffer.
+     *
+     * @param channel the channel to read from
+     */
+    public PipeRecordReader(final ReadableByteChannel channel)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.position = 0;
+        this.limit = 0;
+        this.endOfInput = false;
+        this.discarded = 0;
+        initFields();
+    }
+
+    /**
+     * Constructs a new PipeRecordReader which reads the bytes between the position and limit of a buffer,
+     * such as a memory-mapped region of a file. The buffer itself is not modified.
+     *
+     * @param buffer the buffer to read from
+     */
+    public PipeRecordReader(final ByteBuffer buffer)
+    {
+        this.channel = null;
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+        this.endOfInput = true;
+        this.discarded = -buffer.position();
+        initFields();
+    }
+
+    /**
+     * Opens a PipeRecordReader over a file.
+     *
+     * @param file the file to read
+     * @return a new PipeRecordReader which must be closed by the caller
+     * @throws IOException if the file cannot be opened
+     */
+    public static PipeRecordReader open(final File file) throws IOException
+    {
+        return new PipeRecordReader(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Moves to the next record and locates its fields.
+     *
+     * @return true if there was another record, false at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    public boolean next() throws IOException
+    {
+        while(true)
+        {
+            int end;
+            end = position;
+
+            while(end < limit && buffer.get(end) != LINE_FEED)
+            {
+                end++;
+            }
+
+            if(end == limit && !endOfInput)
+            {
+                fill();
+                continue;
+            }
+
+            if(end == position && end == limit)
+            {
+                fieldCount = 0;
+                return false;
+            }
+
+            lineStart = position;
+            lineEnd = end > position && buffer.get(end - 1) == CARRIAGE_RETURN ? end - 1 : end;
+            position = end < limit ? end + 1 : end;
+            lineNumber++;
+
+            if(lineEnd > lineStart)
+            {
+                tokenize();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     *
+     * @return the number of fields in the current record
+     */
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the number of the line the current record was read from, starting at 1 and counting blank lines.
+     *
+     * @return the line number of the current record
+     */
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the number of bytes of the input consumed so far, which is the position just after the
+     * line of the current record, or the end of the input once next has returned false.
+     *
+     * @return the offset of the first byte after the current record
+     */
+    public long getOffset()
+    {
+        return discarded + position;
+    }
+
+    /**
+     * Returns the whole current record as a String, for example for an error message.
+     *
+     * @return the current record
+     */
+    public String getLine()
+    {
+        return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * Returns a field of the current record as a String.
+     *
+     * @param field the index of the field
+     * @return the text of the field
+     */
+    public String getString(final int field)
+    {
+        checkField(field);
+        return decode(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Returns true if a field of the current record equals the specified ASCII text, ignoring case.
+     *
+     * @param field the index of the field
+     * @param text the ASCII text to compare with
+     * @return true if the field equals the text ignoring case, false otherwise
+     */
+    public boolean fieldEqualsIgnoreCase(final int field, final String text)
+    {
+        final int start;
+
+        checkField(field);
+        start = fieldStarts[field];
+
+        if(fieldEnds[field] - start != text.length())
+        {
+            return false;
+        }
+
+        for(int i = 0; i < text.length(); i++)
+        {
+            if(Character.toLowerCase((char) buffer.get(start + i)) != Character.toLowerCase(text.charAt(i)))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses a field of the current record as a decimal int, with the same rules as Integer.parseInt.
+     *
+     * @param field the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a valid int
+     */
+    public int getInt(final int field)
+    {
+        final int start;
+        final int end;
+        final boolean negative;
+
+        long value;
+        int i;
+
+        checkField(field);
+        start = fieldStarts[field];
+        end = fieldEnds[field];
+        i = start;
+
+        negative = i < end && buffer.get(i) == '-';
+        if(i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+        {
+            i++;
+        }
+
+        if(i == end)
+        {
+            throw invalidNumber(field);
+        }
+
+        value = 0;
+        for(; i < end; i++)
+        {
+            final int digit = buffer.get(i) - '0';
+
+            if(digit < 0 || digit > 9)
+            {
+                throw invalidNumber(field);
+            }
+
+            value = value * 10 + digit;
+            if(value > (long) Integer.MAX_VALUE + 1)
+            {
+                throw invalidNumber(field);
+            }
+        }
+
+        value = negative ? -value : value;
+        if(value > Integer.MAX_VALUE)
+        {
+            throw invalidNumber(field);
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Parses a field of the current record as a double, with the same results as Double.parseDouble.
+     * Plain decimals such as "1500000.00" are parsed straight from the bytes; anything else
+     * falls back to Double.parseDouble.
+     *
+     * @param field the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a valid double
+     */
+    public double getDouble(final int field)
+    {
+        final int start;
+        final int end;
+        final boolean negative;
+
+        long mantissa;
+        int digits;
+        int significantDigits;
+        int scale;
+        int i;
+
+        checkField(field);
+        start = fieldStarts[field];
+        end = fieldEnds[field];
+        i = start;
+
+        negative = i < end && buffer.get(i) == '-';
+        if(i < end && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+        {
+            i++;
+        }
+
+        mantissa = 0;
+        digits = 0;
+        significantDigits = 0;
+        scale = 0;
+
+        for(; i < end && isDigit(buffer.get(i)); i++)
+        {
+            mantissa = mantissa * 10 + (buffer.get(i) - '0');
+            digits++;
+            significantDigits += mantissa != 0 ? 1 : 0;
+            if(significantDigits > MAX_DIGITS)
+            {
+                return Double.parseDouble(getString(field));
+            }
+        }
+
+        if(i < end && buffer.get(i) == '.')
+        {
+            i++;
+            for(; i < end && isDigit(buffer.get(i)); i++)
+            {
+                mantissa = mantissa * 10 + (buffer.get(i) - '0');
+                digits++;
+                significantDigits += mantissa != 0 ? 1 : 0;
+                scale++;
+                if(significantDigits > MAX_DIGITS)
+                {
+                    return Double.parseDouble(getString(field));
+                }
+            }
+        }
+
+        // Exponents, special values and long or malformed numbers take the slow path
+        if(i != end || digits == 0 || significantDigits > MAX_EXACT_DIGITS || scale >= POWERS_OF_TEN.length)
+        {
+            return Double.parseDouble(getString(field));
+        }
+
+        // Both the mantissa and the power of ten are exact doubles, so one division rounds correctly
+        final double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a field of the current record as a boolean, with the same rules as Boolean.parseBoolean.
+     *
+     * @param field the index of the field
+     * @return true if the field is "true" ignoring case, false otherwise
+     */
+    public boolean getBoolean(final int field)
+    {
+        return fieldEqualsIgnoreCase(field, "true");
+    }
+
+    /**
+     * Closes the underlying channel, if there is one.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(channel != null)
+        {
+            channel.close();
+        }
+    }
+
+    /*
+     * Creates the arrays which hold the field boundaries of the current record.
+     */
+    private void initFields()
+    {
+        fieldStarts = new int[INITIAL_MAX_FIELDS];
+        fieldEnds = new int[INITIAL_MAX_FIELDS];
+        fieldCount = 0;
+        lineNumber = 0;
+    }
+
+    /*
+     * Records the start and end of every field of the current line.
+     */
+    private void tokenize()
+    {
+        int start;
+        start = lineStart;
+        fieldCount = 0;
+
+        for(int i = lineStart; i <= lineEnd; i++)
+        {
+            if(i == lineEnd || buffer.get(i) == DELIMITER)
+            {
+                if(fieldCount == fieldStarts.length)
+                {
+                    growFields();
+                }
+
+                fieldStarts[fieldCount] = start;
+                fieldEnds[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+    }
+
+    /*
+     * Makes room for more fields per record.
+     */
+    private void growFields()
+    {
+        final int[] starts;
+        final int[] ends;
+
+        starts = new int[fieldStarts.length * 2];
+        ends = new int[fieldEnds.length * 2];
+        System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+        System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+        fieldStarts = starts;
+        fieldEnds = ends;
+    }
+
+    /*
+     * Moves the unread bytes to the front of the buffer, growing it if a single line fills it,
+     * and reads more input after them.
+     */
+    private void fill() throws IOException
+    {
+        final int remaining;
+        final int read;
+
+        remaining = limit - position;
+        discarded += position;
+
+        if(position == 0 && limit == buffer.capacity())
+        {
+            final ByteBuffer larger;
+            larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            larger.put(buffer.array(), 0, limit);
+            buffer = larger;
+        }
+        else
+        {
+            System.arraycopy(buffer.array(), position, buffer.array(), 0, remaining);
+        }
+
+        position = 0;
+        limit = remaining;
+
+        buffer.clear().position(limit);
+        read = channel.read(buffer);
+
+        if(read < 0)
+        {
+            endOfInput = true;
+        }
+        else
+        {
+            limit += read;
+        }
+    }
+
+    /*
+     * Decodes the bytes between two positions of the buffer as UTF-8.
+     */
+    private String decode(final int start, final int end)
+    {
+        if(buffer.hasArray())
+        {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+
+        if(scratch == null || scratch.length < end - start)
+        {
+            scratch = new byte[Math.max(end - start, INITIAL_MAX_FIELDS * 8)];
+        }
+
+        buffer.get(start, scratch, 0, end - start);
+        return new String(scratch, 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Throws if the current record has no field with the given index. A short line is bad input like an
+     * unparsable number, so it is reported the same way rather than as an IndexOutOfBoundsException.
+     */
+    private void checkField(final int field)
+    {
+        if(field < 0 || field >= fieldCount)
+        {
+            throw new IllegalArgumentException("Invalid field " + field + " on line " + lineNumber + ": " + getLine());
+        }
+    }
+
+    /*
+     * Creates the exception for a field which is not a valid number.
+     */
+    private NumberFormatException invalidNumber(final int field)
+    {
+        return new NumberFormatException("For input string: \"" + getString(field) + "\" on line " + lineNumber);
+    }
+
+    /*
+     * Returns true if the byte is an ASCII digit.
+     */
+    private static boolean isDigit(final byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,754 @@
+package main.java.io;
+
+import main.java.Agency;
+import main.java.AgencyChangeListener;
+import main.java.address.Address;
+import main.java.address.AddressPool;
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+import main.java.property.Retail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to an agency, so that they survive a crash.
+ * Registered as a change listener on an agency, it records every added property, removed property
+ * and price change. On startup the latest snapshot is read and the log is replayed on top of it.
+ *
+ * <p>Each record is an int payload length, an int CRC32 of the payload, then the payload, so a
+ * record torn by a crash is detected and dropped on replay. Records are idempotent: replaying a
+ * record whose change is already in the agency leaves the agency unchanged.
+ *
+ * <p>Forcing the file to disk is by far the slowest part of logging, so records are collected in
+ * memory and forced in groups. In {@link SyncMode#GROUP_COMMIT} mode every change waits until it is
+ * on disk, but one writing thread forces the file on behalf of every record appended so far while
+ * other threads wait for it, so concurrent writers share a single force. In {@link SyncMode#MANUAL}
+ * mode changes return at once and are forced by {@link #sync()}, or when enough of them have built up.
+ *
+ * <p>The listener methods for a change only append its records; the wait happens in
+ * {@link #changeCompleted()}, which the agency calls once it has released any lock held for the change.
+ * Other writers can then append while the file is being forced, and their records form the next group.
+ * Other threads may see a change before it is on disk; only the thread which made it waits. Code which
+ * calls the listener methods directly must call changeCompleted itself to wait for its records.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class WriteAheadLog implements AgencyChangeListener, Closeable
+{
+    /**
+     * When the records of a change are forced to disk.
+     */
+    public enum SyncMode
+    {
+        /**
+         * Every change waits until its record is on disk, sharing the force with concurrent changes.
+         */
+        GROUP_COMMIT,
+
+        /**
+         * Changes are forced by an explicit call to sync, or once enough records are waiting.
+         */
+        MANUAL
+    }
+
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+    private static final int MANUAL_SYNC_THRESHOLD = 1024 * 1024;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte PRICE = 3;
+
+    private static final int FIRST_FLAG = 1;
+    private static final int SECOND_FLAG = 2;
+
+    private final SyncMode syncMode;
+    private final Path path;
+    private final ReentrantLock lock;
+    private final Condition synced;
+    private final RecordBuffer recordBytes;
+    private final DataOutputStream record;
+    private final CRC32 crc;
+    private final ThreadLocal<long[]> unsyncedSequence;
+
+    private FileChannel channel;
+    private RecordBuffer pending;
+    private RecordBuffer spare;
+    private long appendedSequence;
+    private long durableSequence;
+    private long syncCount;
+    private boolean syncing;
+    private IOException failure;
+
+    /**
+     * Constructs a new WriteAheadLog which appends to a file, creating it if necessary.
+     * Any existing log should be replayed with {@link #replay(File, Agency)} first.
+     *
+     * @param file the log file
+     * @param syncMode when records are forced to disk
+     * @throws IOException if the file cannot be opened
+     */
+    public WriteAheadLog(final File file, final SyncMode syncMode) throws IOException
+    {
+        if(syncMode == null)
+        {
+            throw new NullPointerException("Invalid sync mode: null");
+        }
+
+        this.syncMode = syncMode;
+        path = file.toPath().toAbsolutePath();
+        channel = open(path);
+
+        lock = new ReentrantLock();
+        synced = lock.newCondition();
+        recordBytes = new RecordBuffer();
+        record = new DataOutputStream(recordBytes);
+        crc = new CRC32();
+        pending = new RecordBuffer();
+        spare = new RecordBuffer();
+        unsyncedSequence = ThreadLocal.withInitial(() -> new long[1]);
+    }
+
+    /**
+     * Records that a property was added.
+     *
+     * @param property the property which was added
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    @Override
+    public void propertyAdded(final Property property)
+    {
+        final long sequence;
+
+        lock.lock();
+        try
+        {
+            recordBytes.reset();
+            record.writeByte(ADD);
+            writeProperty(property);
+            sequence = append();
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        unsyncedSequence.get()[0] = sequence;
+    }
+
+    /**
+     * Records that a property was removed.
+     *
+     * @param property the property which was removed
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    @Override
+    public void propertyRemoved(final Property property)
+    {
+        final long sequence;
+
+        lock.lock();
+        try
+        {
+            recordBytes.reset();
+            record.writeByte(REMOVE);
+            record.writeUTF(property.getPropertyId());
+            sequence = append();
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        unsyncedSequence.get()[0] = sequence;
+    }
+
+    /**
+     * Records that the price of a property was changed.
+     *
+     * @param property the property whose price changed
+     * @param oldPriceUsd the previous price in USD
+     * @param newPriceUsd the new price in USD
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    @Override
+    public void priceChanged(final Property property,
+                             final double oldPriceUsd,
+                             final double newPriceUsd)
+    {
+        final long sequence;
+
+        lock.lock();
+        try
+        {
+            recordBytes.reset();
+            record.writeByte(PRICE);
+            record.writeUTF(property.getPropertyId());
+            record.writeDouble(newPriceUsd);
+            sequence = append();
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        unsyncedSequence.get()[0] = sequence;
+    }
+
+    /**
+     * Waits until the records this thread appended for a change are on disk, if the sync mode requires it.
+     *
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    @Override
+    public void changeCompleted()
+    {
+        final long[] unsynced;
+        final long sequence;
+
+        unsynced = unsyncedSequence.get();
+        sequence = unsynced[0];
+        if(sequence == 0)
+        {
+            return;
+        }
+        unsynced[0] = 0;
+
+        lock.lock();
+        try
+        {
+            if(syncMode == SyncMode.GROUP_COMMIT || pending.size() >= MANUAL_SYNC_THRESHOLD)
+            {
+                awaitDurable(sequence);
+            }
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void sync() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            awaitDurable(appendedSequence);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times the log file has been forced to disk for new records. Compared with
+     * the number of changes logged, it shows how well concurrent changes are being grouped.
+     *
+     * @return the number of forces
+     */
+    public long getSyncCount()
+    {
+        lock.lock();
+        try
+        {
+            return syncCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of an agency and drops the records of the changes it holds from the log.
+     * The log is not locked while the snapshot is written, so other threads can go on changing the agency;
+     * the records they append meanwhile are kept in the log. The snapshot may already hold some of those
+     * changes, which is safe because replaying a record whose change is already in the agency is harmless.
+     * Checkpoints are made one at a time.
+     *
+     * @param agency the agency this log is recording
+     * @param snapshotFile the snapshot file to write
+     * @throws IOException if the snapshot or the log cannot be written
+     */
+    public synchronized void checkpoint(final Agency agency, final File snapshotFile) throws IOException
+    {
+        final long snapshotOffset;
+
+        // Every record up to here is for a change already made to the agency, so the snapshot will hold it
+        lock.lock();
+        try
+        {
+            awaitDurable(appendedSequence);
+            awaitIdle();
+            snapshotOffset = channel.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        AgencySnapshot.write(agency, snapshotFile);
+
+        lock.lock();
+        try
+        {
+            awaitIdle();
+            dropRecordsBefore(snapshotOffset);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk and closes the log file.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            sync();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Applies every complete record of a log file to an agency, in order. Replay stops at the first
+     * record which is cut short or fails its checksum, and the file is truncated there so that new
+     * records follow the last good one. The log must not be registered on the agency during replay.
+     *
+     * @param file the log file, which need not exist
+     * @param agency the agency to apply the changes to, usually one just read from a snapshot
+     * @return the number of records applied
+     * @throws IOException if the file cannot be read or holds a record which cannot be applied
+     */
+    public static int replay(final File file, final Agency agency) throws IOException
+    {
+        return replay(file, agency, new AddressPool());
+    }
+
+    /**
+     * Applies every complete record of a log file to an agency as replay does, building the addresses of
+     * added properties through a pool supplied by the caller, such as the pool of the load before it.
+     *
+     * @param file the log file, which need not exist
+     * @param agency the agency to apply the changes to, usually one just read from a snapshot
+     * @param pool the pool which supplies street names and cities
+     * @return the number of records applied
+     * @throws IOException if the file cannot be read or holds a record which cannot be applied
+     */
+    public static int replay(final File file, final Agency agency, final AddressPool pool) throws IOException
+    {
+        final CRC32 crc;
+
+        long validLength;
+        int applied;
+
+        if(!file.exists())
+        {
+            return 0;
+        }
+
+        crc = new CRC32();
+        validLength = 0;
+        applied = 0;
+
+        try(final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()))))
+        {
+            while(true)
+            {
+                final int length;
+                final int checksum;
+                final byte[] payload;
+
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+
+                    if(length <= 0 || length > MAX_RECORD_LENGTH)
+                    {
+                        break;
+                    }
+
+                    payload = new byte[length];
+                    in.readFully(payload);
+                }
+                catch(final EOFException e)
+                {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if((int) crc.getValue() != checksum)
+                {
+                    break;
+                }
+
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), agency, pool, validLength);
+                validLength += HEADER_LENGTH + length;
+                applied++;
+            }
+        }
+
+        if(validLength < file.length())
+        {
+            try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+            {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+
+        return applied;
+    }
+
+    /*
+     * Appends the record being built to the pending records and returns its sequence number. The lock must be held.
+     */
+    private long append() throws IOException
+    {
+        if(failure != null)
+        {
+            throw new IOException("Log is unusable after an earlier failure", failure);
+        }
+
+        crc.reset();
+        crc.update(recordBytes.view());
+
+        pending.writeInt(recordBytes.size());
+        pending.writeInt((int) crc.getValue());
+        recordBytes.writeTo(pending);
+
+        return ++appendedSequence;
+    }
+
+    /*
+     * Returns once the record with a sequence number is on disk. If no other thread is forcing the file,
+     * this thread becomes the leader: it takes every pending record, releases the lock while it writes
+     * and forces them, then wakes the threads which were waiting. The lock must be held.
+     */
+    private void awaitDurable(final long sequence) throws IOException
+    {
+        while(durableSequence < sequence)
+        {
+            if(failure != null)
+            {
+                throw new IOException("Log is unusable after an earlier failure", failure);
+            }
+
+            if(syncing)
+            {
+                synced.awaitUninterruptibly();
+            }
+            else
+            {
+                final RecordBuffer batch;
+                final long batchSequence;
+
+                final FileChannel target;
+
+                batch = pending;
+                batchSequence = appendedSequence;
+                target = channel;
+                pending = spare;
+                syncing = true;
+
+                lock.unlock();
+                try
+                {
+                    final ByteBuffer bytes;
+                    bytes = batch.view();
+
+                    while(bytes.hasRemaining())
+                    {
+                        target.write(bytes);
+                    }
+                    target.force(false);
+                }
+                catch(final IOException e)
+                {
+                    lock.lock();
+                    failure = e;
+                    syncing = false;
+                    synced.signalAll();
+                    throw e;
+                }
+
+                lock.lock();
+                batch.reset();
+                spare = batch;
+                durableSequence = batchSequence;
+                syncCount++;
+                syncing = false;
+                synced.signalAll();
+            }
+        }
+    }
+
+    /*
+     * Returns once no thread is writing pending records to the file, so the file ends with a whole record.
+     * The lock must be held.
+     */
+    private void awaitIdle()
+    {
+        while(syncing)
+        {
+            synced.awaitUninterruptibly();
+        }
+    }
+
+    /*
+     * Replaces the log file with a copy holding only the records from an offset on. The copy is forced before it
+     * is moved over the log, so a crash leaves either the old log or the new one, never a log missing records
+     * which are not in the snapshot. The lock must be held and no thread may be writing to the file.
+     */
+    private void dropRecordsBefore(final long offset) throws IOException
+    {
+        final Path temporary;
+        final long end;
+        final FileChannel previous;
+
+        long position;
+
+        temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        end = channel.size();
+
+        try(final FileChannel copy = FileChannel.open(temporary,
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            position = offset;
+            while(position < end)
+            {
+                position += channel.transferTo(position, end - position, copy);
+            }
+            copy.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        AgencySnapshot.syncDirectory(path.getParent());
+
+        previous = channel;
+        try
+        {
+            channel = open(path);
+        }
+        catch(final IOException e)
+        {
+            // The old channel now writes to a file which is no longer the log
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            previous.close();
+        }
+    }
+
+    /*
+     * Opens a log file for appending, creating it if necessary.
+     */
+    private static FileChannel open(final Path path) throws IOException
+    {
+        final FileChannel channel;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+
+        return channel;
+    }
+
+    /*
+     * Writes a whole property, including its address, to the record being built.
+     */
+    private void writeProperty(final Property property) throws IOException
+    {
+        final Address address;
+        address = property.getAddress();
+
+        record.writeByte(property.getType().ordinal());
+        record.writeDouble(property.getPriceUsd());
+        record.writeUTF(property.getPropertyId());
+        record.writeUTF(address.unitNumber());
+        record.writeInt(address.streetNumber());
+        record.writeUTF(address.streetName());
+        record.writeUTF(address.postalCode());
+        record.writeUTF(address.city());
+
+        if(property instanceof Residence residence)
+        {
+            record.writeInt(residence.getNumberOfBedrooms());
+            record.writeByte(flags(residence.hasSwimmingPool(), residence.hasStrata()));
+        }
+        else if(property instanceof Commercial commercial)
+        {
+            record.writeByte(flags(commercial.hasLoadingDock(), commercial.hasHighwayAccess()));
+        }
+        else if(property instanceof Retail retail)
+        {
+            record.writeInt(retail.getSquareFootage());
+            record.writeByte(flags(retail.isCustomerParking(), false));
+        }
+    }
+
+    /*
+     * Decodes one record payload and applies it to an agency, taking street names and cities from the pool of the replay.
+     */
+    private static void apply(final DataInputStream in,
+                              final Agency agency,
+                              final AddressPool pool,
+                              final long offset) throws IOException
+    {
+        final byte operation;
+        operation = in.readByte();
+
+        try
+        {
+            switch(operation)
+            {
+                case ADD -> agency.addProperty(readProperty(in, pool));
+                case REMOVE -> agency.removeProperty(in.readUTF());
+                case PRICE ->
+                {
+                    final Property property;
+                    property = agency.getProperty(in.readUTF());
+
+                    if(property != null)
+                    {
+                        property.setPriceUsd(in.readDouble());
+                    }
+                }
+                default -> throw new IOException("Invalid log record at offset " + offset + ": operation " + operation);
+            }
+        }
+        catch(final IllegalArgumentException | NullPointerException | IndexOutOfBoundsException e)
+        {
+            throw new IOException("Invalid log record at offset " + offset, e);
+        }
+    }
+
+    /*
+     * Reads a whole property, including its address, written by writeProperty.
+     */
+    private static Property readProperty(final DataInputStream in, final AddressPool pool) throws IOException
+    {
+        final PropertyType type;
+        final double priceUsd;
+        final String propertyId;
+        final Address address;
+
+        type = PropertyType.values()[in.readByte()];
+        priceUsd = in.readDouble();
+        propertyId = in.readUTF();
+        address = pool.address(in.readUTF(), in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+
+        return switch(type)
+        {
+            case RESIDENCE ->
+            {
+                final int bedrooms;
+                final byte flags;
+
+                bedrooms = in.readInt();
+                flags = in.readByte();
+                yield new Residence(priceUsd, address, bedrooms,
+                                    (flags & FIRST_FLAG) != 0, propertyId, (flags & SECOND_FLAG) != 0);
+            }
+            case COMMERCIAL ->
+            {
+                final byte flags;
+                flags = in.readByte();
+                yield new Commercial(priceUsd, address, propertyId,
+                                     (flags & FIRST_FLAG) != 0, (flags & SECOND_FLAG) != 0);
+            }
+            case RETAIL ->
+            {
+                final int squareFootage;
+                final byte flags;
+
+                squareFootage = in.readInt();
+                flags = in.readByte();
+                yield new Retail(priceUsd, address, propertyId, squareFootage, (flags & FIRST_FLAG) != 0);
+            }
+        };
+    }
+
+    /*
+     * Packs two booleans into the low bits of a byte.
+     */
+    private static int flags(final boolean first, final boolean second)
+    {
+        return (first ? FIRST_FLAG : 0) | (second ? SECOND_FLAG : 0);
+    }
+
+    /*
+     * A byte buffer of pending records which can be written to a channel without copying.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream
+    {
+        private void writeInt(final int value)
+        {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private ByteBuffer view()
+        {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package main.java.property;
+
+/**
+ * Represents a yes-or-no feature which a property of one particular type may have.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public enum Amenity
+{
+    SWIMMING_POOL(PropertyType.RESIDENCE),
+    STRATA(PropertyType.RESIDENCE),
+    LOADING_DOCK(PropertyType.COMMERCIAL),
+    HIGHWAY_ACCESS(PropertyType.COMMERCIAL),
+    CUSTOMER_PARKING(PropertyType.RETAIL);
+
+    private final PropertyType propertyType;
+
+    Amenity(final PropertyType propertyType)
+    {
+        this.propertyType = propertyType;
+    }
+
+    /**
+     * Returns the type of property this amenity applies to.
+     *
+     * @return the type of property this amenity applies to
+     */
+    public PropertyType getPropertyType()
+    {
+        return propertyType;
+    }
+
+    /**
+     * Returns true if the specified property has this amenity, false otherwise.
+     * A property of a type the amenity does not apply to never has it.
+     *
+     * @param property the property to check
+     * @return true if the property has this amenity, false otherwise
+     */
+    public boolean isPresentOn(final Property property)
+    {
+        return switch(this)
+        {
+            case SWIMMING_POOL -> property instanceof Residence residence && residence.hasSwimmingPool();
+            case STRATA -> property instanceof Residence residence && residence.hasStrata();
+            case LOADING_DOCK -> property instanceof Commercial commercial && commercial.hasLoadingDock();
+            case HIGHWAY_ACCESS -> property instanceof Commercial commercial && commercial.hasHighwayAccess();
+            case CUSTOMER_PARKING -> property instanceof Retail retail && retail.isCustomerParking();
+        };
+    }
+}
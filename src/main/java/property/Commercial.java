@@ -27,12 +27,11 @@ public class Commercial extends Property
      */
     public Commercial(final double priceInUsd,
                       final Address address,
-                      final String  type,
                       final String propertyId,
                       final boolean loadingDock,
                       final boolean highwayAccess)
     {
-        super(priceInUsd, address, type, propertyId);
+        super(priceInUsd, address, PropertyType.COMMERCIAL, propertyId);
 
         this.loadingDock = loadingDock;
         this.highwayAccess = highwayAccess;
@@ -0,0 +1,21 @@
+package main.java.property;
+
+/**
+ * A listener which is notified whenever the price of a property changes.
+ * Collections which order or group properties by price register one of these so that
+ * they can keep their internal structures up to date.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public interface PriceChangeListener
+{
+    /**
+     * Called after the price of a property has been changed.
+     *
+     * @param property the property whose price changed
+     * @param oldPriceUsd the previous price in USD
+     * @param newPriceUsd the new price in USD
+     */
+    void priceChanged(Property property, double oldPriceUsd, double newPriceUsd);
+}
@@ -2,6 +2,9 @@ package main.java.property;
 
 import main.java.address.Address;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Represents a real estate property.
  * Each property has a price, address, number of bedrooms, swimming pool availability,
@@ -10,16 +13,17 @@ import main.java.address.Address;
  * @author Amir Roshan
  * @version 1.0
  */
-public class Property
+public abstract class Property implements PropertyView
 {
     private static final int MIN_PRICE_IN_USD = 0;
     private static final int MIN_PROPERTY_ID_LENGTH = 1;
     private static final int MAX_PROPERTY_ID_LENGTH = 6;
 
     private final Address address;
-    private final String type;
+    private final PropertyType type;
     private final String propertyId;
     private double priceUsd;
+    private List<PriceChangeListener> priceChangeListeners;
 
     /**
      * Constructs a new Property object with the specified parameters.
@@ -28,15 +32,16 @@ public class Property
      * @param address the address of the property
      * @param type the type of the property (residence, commercial, retail)
      * @param propertyId the unique ID of the property
+     * @throws IllegalArgumentException if priceInUsd is negative, NaN or infinite
      * @throws NullPointerException if address, type, or propertyId is null
      */
-    public Property(final double priceInUsd,
-                    final Address address,
-                    final String type,
-                    final String propertyId)
+    protected Property(final double priceInUsd,
+                       final Address address,
+                       final PropertyType type,
+                       final String propertyId)
     {
-        // Validate price
-        if(priceInUsd < MIN_PRICE_IN_USD)
+        // Validate price; NaN and infinity have no place in the price index or the price totals
+        if(!Double.isFinite(priceInUsd) || priceInUsd < MIN_PRICE_IN_USD)
         {
             throw new IllegalArgumentException("Invalid price: " + priceInUsd);
         }
@@ -52,12 +57,6 @@ public class Property
         {
             throw new NullPointerException("Invalid property type: null");
         }
-        else if(!(type.equalsIgnoreCase("residence") ||
-                  type.equalsIgnoreCase("commercial") ||
-                  type.equalsIgnoreCase("retail")))
-        {
-            throw new IllegalArgumentException("Invalid property type: " + type);
-        }
 
         if(propertyId == null)
         {
@@ -85,16 +84,65 @@ public class Property
 
     /**
      * Sets the price of the property.
+     * Every registered PriceChangeListener is notified once the new price is in place.
      *
      * @param priceUsd the price of the property in USD
+     * @throws IllegalArgumentException if priceUsd is negative, NaN or infinite
      */
     public void setPriceUsd(double priceUsd)
     {
-        if(priceUsd < MIN_PRICE_IN_USD)
+        if(!Double.isFinite(priceUsd) || priceUsd < MIN_PRICE_IN_USD)
         {
             throw new IllegalArgumentException("Price is not accepted.");
         }
+
+        final double oldPriceUsd;
+        oldPriceUsd = this.priceUsd;
+
         this.priceUsd = priceUsd;
+
+        if(priceChangeListeners != null)
+        {
+            for(final PriceChangeListener listener : priceChangeListeners)
+            {
+                listener.priceChanged(this, oldPriceUsd, priceUsd);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to be notified whenever the price of this property changes.
+     *
+     * @param listener the listener to register
+     * @throws NullPointerException if listener is null
+     */
+    public void addPriceChangeListener(final PriceChangeListener listener)
+    {
+        if(listener == null)
+        {
+            throw new NullPointerException("Invalid listener: null");
+        }
+
+        // Most properties belong to a single agency, so the list is only created when needed
+        if(priceChangeListeners == null)
+        {
+            priceChangeListeners = new ArrayList<>(1);
+        }
+        priceChangeListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener previously added with addPriceChangeListener.
+     * If the listener is not registered, no action is taken.
+     *
+     * @param listener the listener to unregister
+     */
+    public void removePriceChangeListener(final PriceChangeListener listener)
+    {
+        if(priceChangeListeners != null)
+        {
+            priceChangeListeners.remove(listener);
+        }
     }
 
     /**
@@ -112,7 +160,7 @@ public class Property
      *
      * @return the type of the property (residence, commercial, retail)
      */
-    public String getType()
+    public PropertyType getType()
     {
         return type;
     }
@@ -1,9 +1,15 @@
 package main.java.property;
 
+import main.java.address.Address;
+import main.java.io.PipeRecordReader;
+
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 /**
  * A class which reads data from a file
@@ -12,6 +18,24 @@ import java.util.Scanner;
  */
 public class PropertyReader
 {
+    private static final int PROPERTY_PRICE_IN_USD_INDEX = 0;
+
+    private static final int RESIDENCE_NUMBER_OF_BEDROOMS_INDEX = 1;
+    private static final int RESIDENCE_SWIMMING_POOL_INDEX = 2;
+    private static final int RESIDENCE_PROPERTY_TYPE_INDEX = 3;
+    private static final int RESIDENCE_PROPERTY_ID_INDEX = 4;
+    private static final int RESIDENCE_STRATA_INDEX = 5;
+
+    private static final int COMMERCIAL_PROPERTY_TYPE_INDEX = 1;
+    private static final int COMMERCIAL_PROPERTY_ID_INDEX = 2;
+    private static final int COMMERCIAL_LOADING_DOCK_INDEX = 3;
+    private static final int COMMERCIAL_HIGHWAY_ACCESS_INDEX = 4;
+
+    private static final int RETAIL_PROPERTY_TYPE_INDEX = 1;
+    private static final int RETAIL_PROPERTY_ID_INDEX = 2;
+    private static final int RETAIL_SQUARE_FOOTAGE_INDEX = 3;
+    private static final int RETAIL_CUSTOMER_PARKING_INDEX = 4;
+
     /**
      * Reads data from a file and returns it as an ArrayList of strings.
      * Each element in the ArrayList represents a line from the file.
@@ -37,4 +61,74 @@ public class PropertyReader
         scanner.close();
         return propertyData;
     }
+
+    /**
+     * Reads property data from the specified file and hands each Property to a sink as soon as it is read.
+     * The property on line N of the file is given the address at index N of the address list.
+     * Fields are parsed straight from the bytes of the file, without splitting each line into Strings first.
+     *
+     * @param file the file to read from
+     * @param addresses the addresses of the properties, in the same order as the file
+     * @param sink the consumer which receives each Property, in file order
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line has an unknown property type
+     * @throws IndexOutOfBoundsException if there are more properties than addresses
+     */
+    public static void readPropertyData(final File file,
+                                        final List<Address> addresses,
+                                        final Consumer<Property> sink) throws IOException
+    {
+        int addressesIndex;
+        addressesIndex = 0;
+
+        try(final PipeRecordReader reader = PipeRecordReader.open(file))
+        {
+            while(reader.next())
+            {
+                sink.accept(parseProperty(reader, addresses.get(addressesIndex)));
+                addressesIndex++;
+            }
+        }
+    }
+
+    /**
+     * Creates a Residence, Commercial or Retail property from the current record of a reader.
+     * The type is taken from the type field, whose position depends on the kind of record.
+     *
+     * @param record the reader positioned on a property record
+     * @param address the address of the property
+     * @return the Property described by the record
+     * @throws IllegalArgumentException if the record has an unknown property type
+     */
+    public static Property parseProperty(final PipeRecordReader record, final Address address)
+    {
+        if(record.getFieldCount() > RESIDENCE_PROPERTY_TYPE_INDEX &&
+           record.fieldEqualsIgnoreCase(RESIDENCE_PROPERTY_TYPE_INDEX, PropertyType.RESIDENCE.getLabel()))
+        {
+            return new Residence(record.getDouble(PROPERTY_PRICE_IN_USD_INDEX),
+                                 address,
+                                 record.getInt(RESIDENCE_NUMBER_OF_BEDROOMS_INDEX),
+                                 record.getBoolean(RESIDENCE_SWIMMING_POOL_INDEX),
+                                 record.getString(RESIDENCE_PROPERTY_ID_INDEX),
+                                 record.getBoolean(RESIDENCE_STRATA_INDEX));
+        }
+        else if(record.fieldEqualsIgnoreCase(COMMERCIAL_PROPERTY_TYPE_INDEX, PropertyType.COMMERCIAL.getLabel()))
+        {
+            return new Commercial(record.getDouble(PROPERTY_PRICE_IN_USD_INDEX),
+                                  address,
+                                  record.getString(COMMERCIAL_PROPERTY_ID_INDEX),
+                                  record.getBoolean(COMMERCIAL_LOADING_DOCK_INDEX),
+                                  record.getBoolean(COMMERCIAL_HIGHWAY_ACCESS_INDEX));
+        }
+        else if(record.fieldEqualsIgnoreCase(RETAIL_PROPERTY_TYPE_INDEX, PropertyType.RETAIL.getLabel()))
+        {
+            return new Retail(record.getDouble(PROPERTY_PRICE_IN_USD_INDEX),
+                              address,
+                              record.getString(RETAIL_PROPERTY_ID_INDEX),
+                              record.getInt(RETAIL_SQUARE_FOOTAGE_INDEX),
+                              record.getBoolean(RETAIL_CUSTOMER_PARKING_INDEX));
+        }
+
+        throw new IllegalArgumentException("Invalid property type: " + record.getLine());
+    }
 }
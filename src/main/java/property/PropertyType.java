@@ -0,0 +1,65 @@
+package main.java.property;
+
+/**
+ * Represents the type of a real estate property.
+ * Each type has the lower case label used for it in the property data file.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public enum PropertyType
+{
+    RESIDENCE("residence"),
+    COMMERCIAL("commercial"),
+    RETAIL("retail");
+
+    private final String label;
+
+    PropertyType(final String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * Returns the property type with the specified label, ignoring case.
+     *
+     * @param label the label of the property type, such as "residence"
+     * @return the matching property type, or null if no type has the specified label
+     */
+    public static PropertyType fromLabel(final String label)
+    {
+        if(label != null)
+        {
+            for(final PropertyType type : values())
+            {
+                if(type.label.equalsIgnoreCase(label))
+                {
+                    return type;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the lower case label of the property type.
+     *
+     * @return the label of the property type
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * Returns the lower case label of the property type.
+     *
+     * @return the label of the property type
+     */
+    @Override
+    public String toString()
+    {
+        return label;
+    }
+}
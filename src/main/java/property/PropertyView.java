@@ -0,0 +1,41 @@
+package main.java.property;
+
+import main.java.address.Address;
+
+/**
+ * The read-only attributes shared by every kind of property. Property implements this directly;
+ * storage which does not keep a Property object per listing can hand out lightweight views instead.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public interface PropertyView
+{
+    /**
+     * Returns the unique ID of the property.
+     *
+     * @return the unique ID of the property
+     */
+    String getPropertyId();
+
+    /**
+     * Returns the price of the property.
+     *
+     * @return the price of the property in USD
+     */
+    double getPriceUsd();
+
+    /**
+     * Returns the type of the property.
+     *
+     * @return the type of the property
+     */
+    PropertyType getType();
+
+    /**
+     * Returns the address of the property.
+     *
+     * @return the address of the property
+     */
+    Address getAddress();
+}
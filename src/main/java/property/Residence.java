@@ -32,11 +32,10 @@ public class Residence extends Property
                      final Address address,
                      final int numberOfBedrooms,
                      final boolean swimmingPool,
-                     final String type,
                      final String propertyId,
                      final boolean strata)
     {
-        super(priceInUsd, address, type, propertyId);
+        super(priceInUsd, address, PropertyType.RESIDENCE, propertyId);
 
         // Validate number of bedrooms
         if(numberOfBedrooms < MIN_BEDROOMS || numberOfBedrooms > MAX_BEDROOMS)
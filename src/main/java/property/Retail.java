@@ -29,12 +29,11 @@ public class Retail extends Property
      */
     public Retail(final double priceInUsd,
                   final Address address,
-                  final String type,
                   final String propertyId,
                   final int squareFootage,
                   final boolean customerParking)
     {
-        super(priceInUsd, address, type, propertyId);
+        super(priceInUsd, address, PropertyType.RETAIL, propertyId);
 
         if(squareFootage < MIN_SQUARE_FOOTAGE)
         {
@@ -55,6 +54,16 @@ public class Retail extends Property
         return squareFootage;
     }
 
+    /**
+     * Returns the price of the retail property divided by its square footage.
+     *
+     * @return the price per square foot in USD, infinite or NaN if the square footage is 0
+     */
+    public double getPricePerSquareFoot()
+    {
+        return getPriceUsd() / squareFootage;
+    }
+
     /**
      * Returns true if the retail property has customer parking, false otherwise.
      *
@@ -0,0 +1,70 @@
+package main.java.query;
+
+import main.java.property.Property;
+
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Represents one way of finding the candidate properties for a query, such as a full scan
+ * or a lookup in one of the agency's indexes. Every candidate an access path produces must
+ * still be checked against the query, so an access path only needs to produce a superset
+ * of the matching properties.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class AccessPath
+{
+    private final String name;
+    private final LongUnaryOperator estimator;
+    private final Supplier<? extends Iterable<? extends Property>> scanner;
+
+    /**
+     * Constructs a new AccessPath with the specified parameters.
+     *
+     * @param name the name of the access path, used when describing a plan
+     * @param estimator a function which, given a limit, returns the number of candidates the access path
+     *                  produces; it may stop counting and return any number above the limit once the limit is passed
+     * @param scanner a function which produces the candidates
+     */
+    public AccessPath(final String name,
+                      final LongUnaryOperator estimator,
+                      final Supplier<? extends Iterable<? extends Property>> scanner)
+    {
+        this.name = name;
+        this.estimator = estimator;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Returns the name of the access path.
+     *
+     * @return the name of the access path
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Estimates the number of candidates the access path produces.
+     *
+     * @param limit the number above which the estimate may stop counting
+     * @return the number of candidates, or any number above limit if there are more than limit
+     */
+    public long estimateRows(final long limit)
+    {
+        return estimator.applyAsLong(limit);
+    }
+
+    /**
+     * Produces the candidates.
+     *
+     * @return the candidate properties
+     */
+    public Iterable<? extends Property> scan()
+    {
+        return scanner.get();
+    }
+}
@@ -0,0 +1,28 @@
+package main.java.query;
+
+import main.java.property.Property;
+
+import java.util.List;
+
+/**
+ * Represents one page of the properties matching a query, in order of price and then property ID.
+ *
+ * @param properties the properties on the page
+ * @param continuationToken the token which fetches the next page, or null if this is the last page
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public record Page(List<Property> properties, String continuationToken)
+{
+    /**
+     * Returns true if there may be more matches after this page, false otherwise.
+     * A full page always has a continuation token, so the page after it may turn out to be empty.
+     *
+     * @return true if there is a next page to fetch, false otherwise
+     */
+    public boolean hasMore()
+    {
+        return continuationToken != null;
+    }
+}
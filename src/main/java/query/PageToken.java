@@ -0,0 +1,87 @@
+package main.java.query;
+
+import main.java.property.Property;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Represents the position of the last property on a page: its price and its property ID.
+ * The next page starts with the first match after this position in order of price and then ID,
+ * so pages stay consistent when properties before the position are added or removed between requests.
+ *
+ * @param priceUsd the price of the last property on the page
+ * @param propertyId the ID of the last property on the page
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public record PageToken(double priceUsd, String propertyId)
+{
+    private static final char SEPARATOR = ':';
+
+    /**
+     * Creates the token for the position of a property.
+     *
+     * @param property the last property on a page
+     * @return the token for its position
+     */
+    public static PageToken after(final Property property)
+    {
+        return new PageToken(property.getPriceUsd(), property.getPropertyId());
+    }
+
+    /**
+     * Reads a token written by encode.
+     *
+     * @param token the encoded token
+     * @return the decoded token
+     * @throws IllegalArgumentException if token is not a valid token
+     */
+    public static PageToken decode(final String token)
+    {
+        final String text;
+        final int separator;
+
+        try
+        {
+            text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            separator = text.indexOf(SEPARATOR);
+
+            return new PageToken(Double.longBitsToDouble(Long.parseUnsignedLong(text.substring(0, separator), 16)),
+                                 text.substring(separator + 1));
+        }
+        catch(final IllegalArgumentException | IndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+    }
+
+    /**
+     * Writes the token as an opaque URL-safe string. The price is written as its exact bits, so no rounding can
+     * make the next page skip or repeat a property.
+     *
+     * @return the encoded token
+     */
+    public String encode()
+    {
+        final String text;
+        text = Long.toHexString(Double.doubleToLongBits(priceUsd)) + SEPARATOR + propertyId;
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns true if a property comes after this position in order of price and then ID.
+     *
+     * @param property the property to compare
+     * @return true if the property comes after this position, false otherwise
+     */
+    public boolean isBefore(final Property property)
+    {
+        final int byPrice;
+        byPrice = Double.compare(property.getPriceUsd(), priceUsd);
+
+        return byPrice > 0 || (byPrice == 0 && property.getPropertyId().compareTo(propertyId) > 0);
+    }
+}
@@ -0,0 +1,430 @@
+package main.java.query;
+
+import main.java.index.HashIndex;
+import main.java.property.Amenity;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.Residence;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Represents a search over the properties of an agency which combines predicates on price, type,
+ * number of bedrooms, amenities, street and city. A property matches the query when it satisfies
+ * every predicate which was set. Street and city names are matched ignoring case and surrounding whitespace.
+ * Queries are immutable and are created with a Builder.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class PropertyQuery
+{
+    private final double minPriceUsd;
+    private final double maxPriceUsd;
+    private final PropertyType propertyType;
+    private final int minBedrooms;
+    private final int maxBedrooms;
+    private final Set<Amenity> requiredAmenities;
+    private final Set<Amenity> excludedAmenities;
+    private final String streetName;
+    private final String city;
+
+    private PropertyQuery(final Builder builder)
+    {
+        this.minPriceUsd = builder.minPriceUsd;
+        this.maxPriceUsd = builder.maxPriceUsd;
+        this.propertyType = builder.propertyType;
+        this.minBedrooms = builder.minBedrooms;
+        this.maxBedrooms = builder.maxBedrooms;
+        this.requiredAmenities = Collections.unmodifiableSet(EnumSet.copyOf(builder.requiredAmenities));
+        this.excludedAmenities = Collections.unmodifiableSet(EnumSet.copyOf(builder.excludedAmenities));
+        this.streetName = builder.streetName;
+        this.city = builder.city;
+    }
+
+    /**
+     * Creates a new Builder for a query which initially matches every property.
+     *
+     * @return a new Builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Returns true if the specified property satisfies every predicate of this query, false otherwise.
+     *
+     * @param property the property to check
+     * @return true if the property matches this query, false otherwise
+     */
+    public boolean matches(final Property property)
+    {
+        final double price;
+        price = property.getPriceUsd();
+
+        if(price < minPriceUsd || price > maxPriceUsd)
+        {
+            return false;
+        }
+
+        if(propertyType != null && property.getType() != propertyType)
+        {
+            return false;
+        }
+
+        if(hasBedroomRange())
+        {
+            if(!(property instanceof Residence residence) ||
+               residence.getNumberOfBedrooms() < minBedrooms ||
+               residence.getNumberOfBedrooms() > maxBedrooms)
+            {
+                return false;
+            }
+        }
+
+        for(final Amenity amenity : requiredAmenities)
+        {
+            if(!amenity.isPresentOn(property))
+            {
+                return false;
+            }
+        }
+
+        for(final Amenity amenity : excludedAmenities)
+        {
+            if(amenity.isPresentOn(property))
+            {
+                return false;
+            }
+        }
+
+        if(streetName != null && !HashIndex.normalize(property.getAddress().streetName()).equals(streetName))
+        {
+            return false;
+        }
+
+        return city == null || HashIndex.normalize(property.getAddress().city()).equals(city);
+    }
+
+    /**
+     * Returns the type every matching property must have. This is the type set on the query, or
+     * the type implied by a bedroom range or a required amenity, or null if any type can match.
+     *
+     * @return the type every matching property must have, or null if any type can match
+     */
+    public PropertyType getImpliedType()
+    {
+        if(propertyType != null)
+        {
+            return propertyType;
+        }
+
+        if(hasBedroomRange())
+        {
+            return PropertyType.RESIDENCE;
+        }
+
+        if(!requiredAmenities.isEmpty())
+        {
+            return requiredAmenities.iterator().next().getPropertyType();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if the query restricts the price, false otherwise.
+     *
+     * @return true if the query restricts the price, false otherwise
+     */
+    public boolean hasPriceRange()
+    {
+        return minPriceUsd != Double.NEGATIVE_INFINITY || maxPriceUsd != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns true if the query restricts the number of bedrooms, false otherwise.
+     *
+     * @return true if the query restricts the number of bedrooms, false otherwise
+     */
+    public boolean hasBedroomRange()
+    {
+        return minBedrooms != Integer.MIN_VALUE || maxBedrooms != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the minimum price (inclusive) in USD.
+     *
+     * @return the minimum price in USD, negative infinity if unrestricted
+     */
+    public double getMinPriceUsd()
+    {
+        return minPriceUsd;
+    }
+
+    /**
+     * Returns the maximum price (inclusive) in USD.
+     *
+     * @return the maximum price in USD, positive infinity if unrestricted
+     */
+    public double getMaxPriceUsd()
+    {
+        return maxPriceUsd;
+    }
+
+    /**
+     * Returns the type of property set on the query.
+     *
+     * @return the type of property, or null if not set
+     */
+    public PropertyType getPropertyType()
+    {
+        return propertyType;
+    }
+
+    /**
+     * Returns the minimum number of bedrooms (inclusive).
+     *
+     * @return the minimum number of bedrooms, Integer.MIN_VALUE if unrestricted
+     */
+    public int getMinBedrooms()
+    {
+        return minBedrooms;
+    }
+
+    /**
+     * Returns the maximum number of bedrooms (inclusive).
+     *
+     * @return the maximum number of bedrooms, Integer.MAX_VALUE if unrestricted
+     */
+    public int getMaxBedrooms()
+    {
+        return maxBedrooms;
+    }
+
+    /**
+     * Returns the amenities a matching property must have.
+     *
+     * @return an unmodifiable set of the required amenities
+     */
+    public Set<Amenity> getRequiredAmenities()
+    {
+        return requiredAmenities;
+    }
+
+    /**
+     * Returns the amenities a matching property must not have.
+     *
+     * @return an unmodifiable set of the excluded amenities
+     */
+    public Set<Amenity> getExcludedAmenities()
+    {
+        return excludedAmenities;
+    }
+
+    /**
+     * Returns the normalized street name a matching property must be on.
+     *
+     * @return the normalized street name, or null if not set
+     */
+    public String getStreetName()
+    {
+        return streetName;
+    }
+
+    /**
+     * Returns the normalized city a matching property must be in.
+     *
+     * @return the normalized city, or null if not set
+     */
+    public String getCity()
+    {
+        return city;
+    }
+
+    /**
+     * Returns true if another object is a query with the same predicates, false otherwise.
+     * Street and city names are compared after normalization, so queries which differ only in the
+     * case or surrounding whitespace of a name are equal.
+     *
+     * @param o the object to compare
+     * @return true if the object is an equal query, false otherwise
+     */
+    @Override
+    public boolean equals(final Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+
+        return o instanceof PropertyQuery other &&
+               Double.compare(minPriceUsd, other.minPriceUsd) == 0 &&
+               Double.compare(maxPriceUsd, other.maxPriceUsd) == 0 &&
+               propertyType == other.propertyType &&
+               minBedrooms == other.minBedrooms &&
+               maxBedrooms == other.maxBedrooms &&
+               requiredAmenities.equals(other.requiredAmenities) &&
+               excludedAmenities.equals(other.excludedAmenities) &&
+               Objects.equals(streetName, other.streetName) &&
+               Objects.equals(city, other.city);
+    }
+
+    /**
+     * Returns a hash code consistent with equals.
+     *
+     * @return the hash code of the query
+     */
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(minPriceUsd, maxPriceUsd, propertyType, minBedrooms, maxBedrooms,
+                            requiredAmenities, excludedAmenities, streetName, city);
+    }
+
+    /**
+     * Builds a PropertyQuery one predicate at a time.
+     */
+    public static final class Builder
+    {
+        private double minPriceUsd;
+        private double maxPriceUsd;
+        private PropertyType propertyType;
+        private int minBedrooms;
+        private int maxBedrooms;
+        private final Set<Amenity> requiredAmenities;
+        private final Set<Amenity> excludedAmenities;
+        private String streetName;
+        private String city;
+
+        private Builder()
+        {
+            minPriceUsd = Double.NEGATIVE_INFINITY;
+            maxPriceUsd = Double.POSITIVE_INFINITY;
+            minBedrooms = Integer.MIN_VALUE;
+            maxBedrooms = Integer.MAX_VALUE;
+            requiredAmenities = EnumSet.noneOf(Amenity.class);
+            excludedAmenities = EnumSet.noneOf(Amenity.class);
+        }
+
+        /**
+         * Restricts the query to properties whose price falls within a range, inclusive.
+         *
+         * @param minUsd the minimum price (inclusive) in USD
+         * @param maxUsd the maximum price (inclusive) in USD
+         * @return this Builder
+         */
+        public Builder priceBetween(final double minUsd, final double maxUsd)
+        {
+            this.minPriceUsd = minUsd;
+            this.maxPriceUsd = maxUsd;
+            return this;
+        }
+
+        /**
+         * Restricts the query to properties of one type.
+         *
+         * @param propertyType the type of property
+         * @return this Builder
+         * @throws NullPointerException if propertyType is null
+         */
+        public Builder ofType(final PropertyType propertyType)
+        {
+            if(propertyType == null)
+            {
+                throw new NullPointerException("Invalid property type: null");
+            }
+
+            this.propertyType = propertyType;
+            return this;
+        }
+
+        /**
+         * Restricts the query to residences whose number of bedrooms falls within a range, inclusive.
+         *
+         * @param min the minimum number of bedrooms (inclusive)
+         * @param max the maximum number of bedrooms (inclusive)
+         * @return this Builder
+         */
+        public Builder bedroomsBetween(final int min, final int max)
+        {
+            this.minBedrooms = min;
+            this.maxBedrooms = max;
+            return this;
+        }
+
+        /**
+         * Restricts the query to properties which have an amenity.
+         *
+         * @param amenity the amenity a property must have
+         * @return this Builder
+         */
+        public Builder with(final Amenity amenity)
+        {
+            requiredAmenities.add(amenity);
+            return this;
+        }
+
+        /**
+         * Restricts the query to properties which do not have an amenity.
+         *
+         * @param amenity the amenity a property must not have
+         * @return this Builder
+         */
+        public Builder without(final Amenity amenity)
+        {
+            excludedAmenities.add(amenity);
+            return this;
+        }
+
+        /**
+         * Restricts the query to properties on a street, ignoring case.
+         *
+         * @param streetName the name of the street
+         * @return this Builder
+         * @throws NullPointerException if streetName is null
+         */
+        public Builder onStreet(final String streetName)
+        {
+            if(streetName == null)
+            {
+                throw new NullPointerException("Invalid street name: null");
+            }
+
+            this.streetName = HashIndex.normalize(streetName);
+            return this;
+        }
+
+        /**
+         * Restricts the query to properties in a city, ignoring case.
+         *
+         * @param city the city
+         * @return this Builder
+         * @throws NullPointerException if city is null
+         */
+        public Builder inCity(final String city)
+        {
+            if(city == null)
+            {
+                throw new NullPointerException("Invalid city: null");
+            }
+
+            this.city = HashIndex.normalize(city);
+            return this;
+        }
+
+        /**
+         * Creates the query.
+         *
+         * @return a new PropertyQuery with the predicates set on this Builder
+         */
+        public PropertyQuery build()
+        {
+            return new PropertyQuery(this);
+        }
+    }
+}
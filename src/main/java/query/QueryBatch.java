@@ -0,0 +1,183 @@
+package main.java.query;
+
+import main.java.property.Property;
+import main.java.property.PropertyType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs many queries in a single pass over the properties. Before the pass the queries are grouped
+ * by the type they imply, and each group is sorted by its lowest price, so a property is only tested
+ * against the queries of its own type, plus the untyped ones, whose price range starts at or below its
+ * price. Every property is then handed to each of those queries it matches. The cost of a batch is one
+ * scan plus the tests which could succeed, rather than one scan per query.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class QueryBatch
+{
+    private final PropertyQuery[] queries;
+    private final Map<PropertyType, Route> routes;
+
+    /**
+     * Constructs a new QueryBatch for a list of queries.
+     *
+     * @param queries the queries to run, in the order their results are returned
+     * @throws NullPointerException if queries or any query in it is null
+     */
+    public QueryBatch(final List<PropertyQuery> queries)
+    {
+        if(queries == null)
+        {
+            throw new NullPointerException("Invalid queries: null");
+        }
+
+        this.queries = queries.toArray(new PropertyQuery[0]);
+        this.routes = new EnumMap<>(PropertyType.class);
+
+        for(final PropertyQuery query : this.queries)
+        {
+            if(query == null)
+            {
+                throw new NullPointerException("Invalid query: null");
+            }
+        }
+
+        for(final PropertyType type : PropertyType.values())
+        {
+            routes.put(type, new Route(type));
+        }
+    }
+
+    /**
+     * Returns the number of queries in the batch.
+     *
+     * @return the number of queries
+     */
+    public int size()
+    {
+        return queries.length;
+    }
+
+    /**
+     * Scans the properties once and collects the matches of every query.
+     *
+     * @param properties the properties to scan
+     * @return the matches of each query, in the order of the queries; each list is in scan order
+     */
+    public List<ArrayList<Property>> execute(final Iterable<? extends Property> properties)
+    {
+        final List<ArrayList<Property>> results;
+        results = new ArrayList<>(queries.length);
+
+        for(int i = 0; i < queries.length; i++)
+        {
+            results.add(new ArrayList<>());
+        }
+
+        if(queries.length == 0)
+        {
+            return Collections.unmodifiableList(results);
+        }
+
+        for(final Property property : properties)
+        {
+            routes.get(property.getType()).dispatch(property, results);
+        }
+
+        return Collections.unmodifiableList(results);
+    }
+
+    /*
+     * The queries which can match properties of one type, sorted by their lowest price.
+     */
+    private final class Route
+    {
+        private final int[] order;
+        private final double[] minPrices;
+
+        private Route(final PropertyType type)
+        {
+            final Integer[] sorted;
+            int count;
+
+            sorted = new Integer[queries.length];
+            count = 0;
+
+            for(int i = 0; i < queries.length; i++)
+            {
+                final PropertyType implied = queries[i].getImpliedType();
+
+                if(implied == null || implied == type)
+                {
+                    sorted[count++] = i;
+                }
+            }
+
+            Arrays.sort(sorted, 0, count, (a, b) -> Double.compare(queries[a].getMinPriceUsd(),
+                                                                   queries[b].getMinPriceUsd()));
+
+            order = new int[count];
+            minPrices = new double[count];
+            for(int i = 0; i < count; i++)
+            {
+                order[i] = sorted[i];
+                minPrices[i] = queries[sorted[i]].getMinPriceUsd();
+            }
+        }
+
+        /*
+         * Adds a property to the results of every query in this route which it matches.
+         */
+        private void dispatch(final Property property,
+                              final List<ArrayList<Property>> results)
+        {
+            final int end;
+            end = countAtOrBelow(property.getPriceUsd());
+
+            for(int i = 0; i < end; i++)
+            {
+                final int query = order[i];
+
+                if(queries[query].matches(property))
+                {
+                    results.get(query).add(property);
+                }
+            }
+        }
+
+        /*
+         * Returns how many queries have a lowest price at or below a price, by binary search.
+         */
+        private int countAtOrBelow(final double price)
+        {
+            int low;
+            int high;
+
+            low = 0;
+            high = minPrices.length;
+
+            while(low < high)
+            {
+                final int mid = (low + high) >>> 1;
+
+                if(minPrices[mid] <= price)
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package main.java.query;
+
+import main.java.property.Property;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of query results, which evicts the least recently used query once it is full.
+ * Each result is stored with the mutation epoch it was computed at: a counter which the agency
+ * advances whenever a property the query could match is added, removed or repriced. A result whose
+ * epoch is no longer current is stale and is dropped when it is next looked up, so the cache never
+ * has to be told which queries a change affects.
+ *
+ * <p>The cache is safe to use from many threads at once.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class QueryCache
+{
+    private final int capacity;
+    private final Map<PropertyQuery, Entry> entries;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    /**
+     * Constructs a new, empty QueryCache.
+     *
+     * @param capacity the largest number of query results to keep
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public QueryCache(final int capacity)
+    {
+        if(capacity <= 0)
+        {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<PropertyQuery, Entry> eldest)
+            {
+                if(size() > QueryCache.this.capacity)
+                {
+                    evictionCount++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of a query if it was computed at the current epoch.
+     *
+     * @param query the query to look up
+     * @param epoch the current mutation epoch for the query
+     * @return a copy of the cached result, or null if there is no current result
+     */
+    public synchronized ArrayList<Property> get(final PropertyQuery query,
+                                                final long epoch)
+    {
+        final Entry entry;
+        entry = entries.get(query);
+
+        if(entry == null)
+        {
+            missCount++;
+            return null;
+        }
+
+        if(entry.epoch != epoch)
+        {
+            entries.remove(query);
+            invalidationCount++;
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return new ArrayList<>(entry.properties);
+    }
+
+    /**
+     * Stores the result of a query computed at an epoch. The result is copied, so the caller may go on changing it.
+     *
+     * @param query the query
+     * @param epoch the mutation epoch the result was computed at
+     * @param properties the result of the query
+     */
+    public synchronized void put(final PropertyQuery query,
+                                 final long epoch,
+                                 final List<Property> properties)
+    {
+        entries.put(query, new Entry(epoch, List.copyOf(properties)));
+    }
+
+    /**
+     * Removes every cached result. The counters are kept.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of query results in the cache, including stale ones not yet looked up.
+     *
+     * @return the number of cached results
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the largest number of query results the cache keeps.
+     *
+     * @return the capacity of the cache
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of lookups which found a current result.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups which found no current result, including those which found a stale one.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of results dropped to make room for newer ones.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of results dropped because the agency changed after they were computed.
+     *
+     * @return the number of invalidations
+     */
+    public synchronized long getInvalidationCount()
+    {
+        return invalidationCount;
+    }
+
+    /**
+     * Returns the fraction of lookups which were hits.
+     *
+     * @return the hit rate between 0 and 1, NaN if there have been no lookups
+     */
+    public synchronized double getHitRate()
+    {
+        return (double) hitCount / (hitCount + missCount);
+    }
+
+    /*
+     * One cached result and the epoch it was computed at.
+     */
+    private record Entry(long epoch, List<Property> properties)
+    {
+    }
+}
@@ -0,0 +1,113 @@
+package main.java.query;
+
+import main.java.property.Property;
+
+import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Represents a chosen way of running a query: the candidates are produced by one access path
+ * and the predicates of the query are applied to each candidate as a residual filter.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public final class QueryPlan
+{
+    private final PropertyQuery query;
+    private final AccessPath accessPath;
+    private final long estimatedRows;
+
+    /**
+     * Constructs a new QueryPlan with the specified parameters.
+     *
+     * @param query the query to run
+     * @param accessPath the access path which produces the candidates
+     * @param estimatedRows the estimated number of candidates
+     */
+    public QueryPlan(final PropertyQuery query,
+                     final AccessPath accessPath,
+                     final long estimatedRows)
+    {
+        this.query = query;
+        this.accessPath = accessPath;
+        this.estimatedRows = estimatedRows;
+    }
+
+    /**
+     * Runs the plan.
+     *
+     * @return an ArrayList of the properties which match the query, in the order the access path produces them
+     */
+    public ArrayList<Property> execute()
+    {
+        final ArrayList<Property> matchedProperties;
+        matchedProperties = new ArrayList<>();
+
+        for(final Property property : accessPath.scan())
+        {
+            if(query.matches(property))
+            {
+                matchedProperties.add(property);
+            }
+        }
+
+        return matchedProperties;
+    }
+
+    /**
+     * Runs the plan lazily. Candidates are only read from the access path as the stream is consumed,
+     * so a stream which is limited or short-circuited stops scanning as soon as it has what it needs.
+     * The stream reads the indexes the access path was built from and must not be used after they change.
+     *
+     * @return a sequential stream of the properties which match the query, in the order the access path produces them
+     */
+    public Stream<Property> stream()
+    {
+        return StreamSupport.stream(accessPath.scan().spliterator(), false)
+                            .filter(query::matches)
+                            .map(Property.class::cast);
+    }
+
+    /**
+     * Returns the query the plan runs.
+     *
+     * @return the query
+     */
+    public PropertyQuery getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * Returns the access path which produces the candidates.
+     *
+     * @return the access path
+     */
+    public AccessPath getAccessPath()
+    {
+        return accessPath;
+    }
+
+    /**
+     * Returns the estimated number of candidates.
+     *
+     * @return the estimated number of candidates
+     */
+    public long getEstimatedRows()
+    {
+        return estimatedRows;
+    }
+
+    /**
+     * Provides a string representation of this QueryPlan.
+     *
+     * @return A string describing the access path and its estimated number of candidates.
+     */
+    @Override
+    public String toString()
+    {
+        return "QueryPlan [accessPath: " + accessPath.getName() + ", estimatedRows: " + estimatedRows + "]";
+    }
+}
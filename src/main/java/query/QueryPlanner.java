@@ -0,0 +1,54 @@
+package main.java.query;
+
+import java.util.List;
+
+/**
+ * A class which chooses how a query is run. Among the access paths available for a query it picks
+ * the one expected to produce the fewest candidates, so that the remaining predicates are applied
+ * to as few properties as possible.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class QueryPlanner
+{
+    /**
+     * Chooses the most selective of the specified access paths for a query.
+     * Each access path after the first is only counted up to the best estimate found so far.
+     *
+     * @param query the query to plan
+     * @param candidates the available access paths, the first of which is the fallback
+     * @return the plan which uses the most selective access path
+     * @throws IllegalArgumentException if candidates is empty
+     */
+    public static QueryPlan plan(final PropertyQuery query, final List<AccessPath> candidates)
+    {
+        AccessPath bestPath;
+        long bestRows;
+
+        if(candidates.isEmpty())
+        {
+            throw new IllegalArgumentException("Invalid candidates: empty");
+        }
+
+        bestPath = candidates.get(0);
+        bestRows = bestPath.estimateRows(Long.MAX_VALUE);
+
+        for(int i = 1; i < candidates.size() && bestRows > 0; i++)
+        {
+            final AccessPath path;
+            final long rows;
+
+            path = candidates.get(i);
+            rows = path.estimateRows(bestRows);
+
+            if(rows < bestRows)
+            {
+                bestPath = path;
+                bestRows = rows;
+            }
+        }
+
+        return new QueryPlan(query, bestPath, bestRows);
+    }
+}
@@ -0,0 +1,114 @@
+package main.java.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * A class which selects the first k matches from a set of candidates without sorting all of them.
+ * Candidates which are already in the wanted order are read only until k matches are found; any
+ * other candidates are passed through a heap which holds at most k of them, so a selection costs
+ * O(n log k) time and O(k) memory instead of the O(n log n) time and O(n) memory of a full sort.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class TopK
+{
+    // The most room reserved up front, so a large k costs memory only as matches are found
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    /**
+     * Selects the k smallest matches in an order from candidates in any order.
+     *
+     * @param candidates the candidates to select from
+     * @param filter the predicate a candidate must satisfy
+     * @param k the largest number of matches to select
+     * @param order the order to select by
+     * @param <T> the type of the candidates
+     * @return up to k matches, smallest first
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public static <T> List<T> select(final Iterable<? extends T> candidates,
+                                     final Predicate<? super T> filter,
+                                     final int k,
+                                     final Comparator<? super T> order)
+    {
+        final PriorityQueue<T> heap;
+        final List<T> selected;
+
+        checkK(k);
+
+        // The head of the heap is the largest of the k smallest seen so far, which the next candidate must beat
+        heap = new PriorityQueue<>(Math.min(k, MAX_INITIAL_CAPACITY), order.reversed());
+        for(final T candidate : candidates)
+        {
+            if(filter.test(candidate))
+            {
+                if(heap.size() < k)
+                {
+                    heap.add(candidate);
+                }
+                else if(order.compare(candidate, heap.peek()) < 0)
+                {
+                    heap.poll();
+                    heap.add(candidate);
+                }
+            }
+        }
+
+        selected = new ArrayList<>(heap);
+        selected.sort(order);
+
+        return selected;
+    }
+
+    /**
+     * Selects the first k matches from candidates which are already in the wanted order,
+     * reading no further than the k-th match.
+     *
+     * @param ordered the candidates, in the wanted order
+     * @param filter the predicate a candidate must satisfy
+     * @param k the largest number of matches to select
+     * @param <T> the type of the candidates
+     * @return up to k matches, in the order of the candidates
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public static <T> List<T> first(final Iterable<? extends T> ordered,
+                                    final Predicate<? super T> filter,
+                                    final int k)
+    {
+        final List<T> selected;
+
+        checkK(k);
+
+        selected = new ArrayList<>(Math.min(k, MAX_INITIAL_CAPACITY));
+        for(final T candidate : ordered)
+        {
+            if(filter.test(candidate))
+            {
+                selected.add(candidate);
+
+                if(selected.size() == k)
+                {
+                    break;
+                }
+            }
+        }
+
+        return selected;
+    }
+
+    /*
+     * Rejects a k which selects nothing.
+     */
+    private static void checkK(final int k)
+    {
+        if(k <= 0)
+        {
+            throw new IllegalArgumentException("Invalid k: " + k);
+        }
+    }
+}
@@ -0,0 +1,719 @@
+package main.java.store;
+
+import main.java.address.Address;
+import main.java.index.PropertyIdMap;
+import main.java.property.Commercial;
+import main.java.property.Property;
+import main.java.property.PropertyType;
+import main.java.property.PropertyView;
+import main.java.property.Residence;
+import main.java.property.Retail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A property store which keeps its listings outside the Java heap, for inventories too large to
+ * hold as one object per property. Each property is a fixed-width record in direct memory, strings
+ * are replaced by codes into a dictionary of distinct values, and the ID lookup table is in direct
+ * memory too, so the heap and the work of the garbage collector depend on the number of distinct
+ * street names, cities, postal codes and unit numbers rather than on the number of listings.
+ *
+ * <p>Records are read through a {@link Cursor}, a reusable flyweight which implements
+ * {@link PropertyView} and the type-specific getters of Residence, Commercial and Retail.
+ * A whole Property object is only built when {@link #getProperty(String)} is called.
+ *
+ * <p>A record is laid out as: long packed ID, double price, int street number, int unit number code,
+ * int street name code, int postal code code, int city code, int bedrooms or square footage,
+ * byte type, byte amenity flags, padded to {@value #RECORD_SIZE} bytes. IDs which cannot be packed
+ * into a long are stored as a dictionary code with the sign bit set.
+ *
+ * <p>This is a standalone store, not a storage backend for {@link main.java.Agency}. Every index of an
+ * Agency holds Property objects, so backing one with off-heap records would bring the objects back onto
+ * the heap and lose the saving. The store therefore offers only what its records can answer directly:
+ * lookup by ID, a scan with {@link #forEach(Consumer)} and a price range count. Queries beyond those are
+ * written as a scan over cursors, or run on an Agency loaded from the properties which need them.
+ *
+ * @author Amir Roshan
+ * @version 1.0
+ */
+public class OffHeapPropertyStore
+{
+    /**
+     * The number of bytes taken by each record.
+     */
+    public static final int RECORD_SIZE = 48;
+
+    private static final int ID_OFFSET = 0;
+    private static final int PRICE_OFFSET = 8;
+    private static final int STREET_NUMBER_OFFSET = 16;
+    private static final int UNIT_NUMBER_OFFSET = 20;
+    private static final int STREET_NAME_OFFSET = 24;
+    private static final int POSTAL_CODE_OFFSET = 28;
+    private static final int CITY_OFFSET = 32;
+    private static final int SIZE_OFFSET = 36;
+    private static final int TYPE_OFFSET = 40;
+    private static final int FLAGS_OFFSET = 41;
+
+    private static final int RECORDS_PER_CHUNK_SHIFT = 16;
+    private static final int RECORDS_PER_CHUNK = 1 << RECORDS_PER_CHUNK_SHIFT;
+    private static final int RECORD_MASK = RECORDS_PER_CHUNK - 1;
+
+    private static final long DICTIONARY_ID = Long.MIN_VALUE;
+    private static final int NO_RECORD = -1;
+    private static final int NONE = -1;
+
+    private static final PropertyType[] TYPES = PropertyType.values();
+
+    private static final int FIRST_FLAG = 1;
+    private static final int SECOND_FLAG = 2;
+
+    private final List<ByteBuffer> chunks;
+    private final List<String> dictionary;
+    private final Map<String, Integer> codes;
+    private final RecordTable ids;
+
+    private int recordCount;
+    private int size;
+    private int freeRecord;
+
+    /**
+     * Constructs a new, empty OffHeapPropertyStore.
+     */
+    public OffHeapPropertyStore()
+    {
+        chunks = new ArrayList<>();
+        dictionary = new ArrayList<>();
+        codes = new HashMap<>();
+        ids = new RecordTable();
+        freeRecord = NO_RECORD;
+    }
+
+    /**
+     * Stores a property, replacing any property already stored under the same ID.
+     * The property object itself is not kept and may be discarded by the caller.
+     *
+     * @param property the property to store
+     */
+    public void addProperty(final Property property)
+    {
+        final long key;
+        final int existing;
+        final int record;
+        final ByteBuffer chunk;
+        final int base;
+        final Address address;
+
+        key = encodeId(property.getPropertyId());
+        existing = ids.get(key);
+
+        if(existing != NO_RECORD)
+        {
+            record = existing;
+        }
+        else
+        {
+            record = allocateRecord();
+            ids.put(key, record);
+            size++;
+        }
+
+        chunk = chunkOf(record);
+        base = offsetOf(record);
+        address = property.getAddress();
+
+        chunk.putLong(base + ID_OFFSET, key);
+        chunk.putDouble(base + PRICE_OFFSET, property.getPriceUsd());
+        chunk.putInt(base + STREET_NUMBER_OFFSET, address.streetNumber());
+        chunk.putInt(base + UNIT_NUMBER_OFFSET, encode(address.unitNumber()));
+        chunk.putInt(base + STREET_NAME_OFFSET, encode(address.streetName()));
+        chunk.putInt(base + POSTAL_CODE_OFFSET, encode(address.postalCode()));
+        chunk.putInt(base + CITY_OFFSET, encode(address.city()));
+        chunk.put(base + TYPE_OFFSET, (byte) property.getType().ordinal());
+
+        if(property instanceof Residence residence)
+        {
+            chunk.putInt(base + SIZE_OFFSET, residence.getNumberOfBedrooms());
+            chunk.put(base + FLAGS_OFFSET, flags(residence.hasSwimmingPool(), residence.hasStrata()));
+        }
+        else if(property instanceof Commercial commercial)
+        {
+            chunk.putInt(base + SIZE_OFFSET, NONE);
+            chunk.put(base + FLAGS_OFFSET, flags(commercial.hasLoadingDock(), commercial.hasHighwayAccess()));
+        }
+        else if(property instanceof Retail retail)
+        {
+            chunk.putInt(base + SIZE_OFFSET, retail.getSquareFootage());
+            chunk.put(base + FLAGS_OFFSET, flags(retail.isCustomerParking(), false));
+        }
+    }
+
+    /**
+     * Removes the property with an ID. If there is none, no action is taken.
+     *
+     * @param propertyId the ID of the property to remove
+     * @return true if a property was removed
+     */
+    public boolean removeProperty(final String propertyId)
+    {
+        final long key;
+        final int record;
+
+        key = lookupId(propertyId);
+        record = key == PropertyIdMap.NOT_PACKABLE ? NO_RECORD : ids.remove(key);
+
+        if(record == NO_RECORD)
+        {
+            return false;
+        }
+
+        // A free record holds the index of the next free record in its price field
+        chunkOf(record).putLong(offsetOf(record) + ID_OFFSET, PropertyIdMap.NOT_PACKABLE);
+        chunkOf(record).putInt(offsetOf(record) + PRICE_OFFSET, freeRecord);
+        freeRecord = record;
+        size--;
+        return true;
+    }
+
+    /**
+     * Changes the price of a stored property.
+     *
+     * @param propertyId the ID of the property
+     * @param priceUsd the new price in USD
+     * @return true if the property exists
+     */
+    public boolean setPriceUsd(final String propertyId, final double priceUsd)
+    {
+        final int record;
+        record = recordOf(propertyId);
+
+        if(record == NO_RECORD)
+        {
+            return false;
+        }
+
+        chunkOf(record).putDouble(offsetOf(record) + PRICE_OFFSET, priceUsd);
+        return true;
+    }
+
+    /**
+     * Moves a cursor to the property with an ID.
+     *
+     * @param propertyId the ID to look up
+     * @param cursor the cursor to move
+     * @return true if the property exists, false if it does not and the cursor was not moved
+     */
+    public boolean find(final String propertyId, final Cursor cursor)
+    {
+        final int record;
+        record = recordOf(propertyId);
+
+        if(record == NO_RECORD)
+        {
+            return false;
+        }
+
+        cursor.moveTo(this, record);
+        return true;
+    }
+
+    /**
+     * Builds a Property object for the property with an ID.
+     *
+     * @param propertyId the ID to look up
+     * @return a new Property equal to the stored one, or null if there is none
+     */
+    public Property getProperty(final String propertyId)
+    {
+        final Cursor cursor;
+        cursor = new Cursor();
+
+        return find(propertyId, cursor) ? cursor.toProperty() : null;
+    }
+
+    /**
+     * Visits every stored property with a single cursor, which is moved to each record in turn.
+     * The cursor must not be kept after the action returns.
+     *
+     * @param action the action to run for each property
+     */
+    public void forEach(final Consumer<Cursor> action)
+    {
+        final Cursor cursor;
+        cursor = new Cursor();
+
+        for(int record = 0; record < recordCount; record++)
+        {
+            if(chunkOf(record).getLong(offsetOf(record) + ID_OFFSET) != PropertyIdMap.NOT_PACKABLE)
+            {
+                cursor.moveTo(this, record);
+                action.accept(cursor);
+            }
+        }
+    }
+
+    /**
+     * Counts the properties whose price falls within a specified range, inclusive, reading only the price of each record.
+     *
+     * @param minUsd the minimum price (inclusive) in USD
+     * @param maxUsd the maximum price (inclusive) in USD
+     * @return the number of matching properties
+     */
+    public int countPriceBetween(final double minUsd, final double maxUsd)
+    {
+        int count;
+        count = 0;
+
+        for(int record = 0; record < recordCount; record++)
+        {
+            final ByteBuffer chunk = chunkOf(record);
+            final int base = offsetOf(record);
+
+            if(chunk.getLong(base + ID_OFFSET) != PropertyIdMap.NOT_PACKABLE)
+            {
+                final double price = chunk.getDouble(base + PRICE_OFFSET);
+                count += (price >= minUsd & price <= maxUsd) ? 1 : 0;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of stored properties.
+     *
+     * @return the number of properties
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct strings in the dictionary, which is what the heap use of the store grows with.
+     *
+     * @return the number of dictionary entries
+     */
+    public int getDictionarySize()
+    {
+        return dictionary.size();
+    }
+
+    /*
+     * Returns the record holding the property with an ID, or NO_RECORD.
+     */
+    private int recordOf(final String propertyId)
+    {
+        final long key;
+        key = lookupId(propertyId);
+
+        return key == PropertyIdMap.NOT_PACKABLE ? NO_RECORD : ids.get(key);
+    }
+
+    /*
+     * Returns the stored key of an ID, adding an unpackable ID to the dictionary.
+     */
+    private long encodeId(final String propertyId)
+    {
+        final long packed;
+        packed = PropertyIdMap.encode(propertyId);
+
+        return packed != PropertyIdMap.NOT_PACKABLE ? packed : DICTIONARY_ID | encode(propertyId);
+    }
+
+    /*
+     * Returns the stored key of an ID without adding to the dictionary, or NOT_PACKABLE if no property can have it.
+     */
+    private long lookupId(final String propertyId)
+    {
+        final long packed;
+        final Integer code;
+
+        packed = PropertyIdMap.encode(propertyId);
+        if(packed != PropertyIdMap.NOT_PACKABLE || propertyId == null)
+        {
+            return packed;
+        }
+
+        code = codes.get(propertyId);
+        return code == null ? PropertyIdMap.NOT_PACKABLE : DICTIONARY_ID | code;
+    }
+
+    /*
+     * Returns the dictionary code of a string, adding it if it is new.
+     */
+    private int encode(final String string)
+    {
+        final Integer code;
+        code = codes.get(string);
+
+        if(code != null)
+        {
+            return code;
+        }
+
+        codes.put(string, dictionary.size());
+        dictionary.add(string);
+        return dictionary.size() - 1;
+    }
+
+    /*
+     * Returns the string with a dictionary code.
+     */
+    private String decode(final int code)
+    {
+        return dictionary.get(code);
+    }
+
+    /*
+     * Returns a free record, reusing a removed one if there is one and adding a chunk if every chunk is full.
+     */
+    private int allocateRecord()
+    {
+        final int record;
+
+        if(freeRecord != NO_RECORD)
+        {
+            record = freeRecord;
+            freeRecord = chunkOf(record).getInt(offsetOf(record) + PRICE_OFFSET);
+            return record;
+        }
+
+        if(recordCount == chunks.size() * RECORDS_PER_CHUNK)
+        {
+            chunks.add(ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_SIZE));
+        }
+
+        return recordCount++;
+    }
+
+    /*
+     * Returns the chunk holding a record.
+     */
+    private ByteBuffer chunkOf(final int record)
+    {
+        return chunks.get(record >>> RECORDS_PER_CHUNK_SHIFT);
+    }
+
+    /*
+     * Returns the offset of a record within its chunk.
+     */
+    private static int offsetOf(final int record)
+    {
+        return (record & RECORD_MASK) * RECORD_SIZE;
+    }
+
+    /*
+     * Packs two booleans into the low bits of a byte.
+     */
+    private static byte flags(final boolean first, final boolean second)
+    {
+        return (byte) ((first ? FIRST_FLAG : 0) | (second ? SECOND_FLAG : 0));
+    }
+
+    /**
+     * A reusable view of one record of a store. Type-specific getters return -1 or false for properties
+     * of other types, as ColumnarSnapshot does. A cursor reads the record each time a getter is called,
+     * so it sees later changes to the record; it must not be used after the record is removed.
+     */
+    public static final class Cursor implements PropertyView
+    {
+        private OffHeapPropertyStore store;
+        private ByteBuffer chunk;
+        private int base;
+
+        /**
+         * Constructs a new Cursor which is not yet on any record.
+         */
+        public Cursor()
+        {
+        }
+
+        private void moveTo(final OffHeapPropertyStore store, final int record)
+        {
+            this.store = store;
+            this.chunk = store.chunkOf(record);
+            this.base = offsetOf(record);
+        }
+
+        @Override
+        public String getPropertyId()
+        {
+            final long key;
+            key = chunk.getLong(base + ID_OFFSET);
+
+            if((key & DICTIONARY_ID) != 0)
+            {
+                return store.decode((int) key);
+            }
+
+            return PropertyIdMap.decode(key);
+        }
+
+        @Override
+        public double getPriceUsd()
+        {
+            return chunk.getDouble(base + PRICE_OFFSET);
+        }
+
+        @Override
+        public PropertyType getType()
+        {
+            return TYPES[chunk.get(base + TYPE_OFFSET)];
+        }
+
+        /**
+         * Builds the address of the property. Its strings come from the dictionary, so no text is copied.
+         *
+         * @return a new Address for the property
+         */
+        @Override
+        public Address getAddress()
+        {
+            return new Address(store.decode(chunk.getInt(base + UNIT_NUMBER_OFFSET)),
+                               chunk.getInt(base + STREET_NUMBER_OFFSET),
+                               store.decode(chunk.getInt(base + STREET_NAME_OFFSET)),
+                               store.decode(chunk.getInt(base + POSTAL_CODE_OFFSET)),
+                               store.decode(chunk.getInt(base + CITY_OFFSET)));
+        }
+
+        /**
+         * Returns the number of bedrooms of a residence.
+         *
+         * @return the number of bedrooms, or -1 if the property is not a residence
+         */
+        public int getNumberOfBedrooms()
+        {
+            return getType() == PropertyType.RESIDENCE ? chunk.getInt(base + SIZE_OFFSET) : NONE;
+        }
+
+        /**
+         * Returns the square footage of a retail property.
+         *
+         * @return the square footage, or -1 if the property is not retail
+         */
+        public int getSquareFootage()
+        {
+            return getType() == PropertyType.RETAIL ? chunk.getInt(base + SIZE_OFFSET) : NONE;
+        }
+
+        /**
+         * Returns true if the property is a residence with a swimming pool.
+         *
+         * @return true if the residence has a swimming pool
+         */
+        public boolean hasSwimmingPool()
+        {
+            return hasFlag(PropertyType.RESIDENCE, FIRST_FLAG);
+        }
+
+        /**
+         * Returns true if the property is a strata residence.
+         *
+         * @return true if the residence is a strata
+         */
+        public boolean hasStrata()
+        {
+            return hasFlag(PropertyType.RESIDENCE, SECOND_FLAG);
+        }
+
+        /**
+         * Returns true if the property is a commercial property with a loading dock.
+         *
+         * @return true if the commercial property has a loading dock
+         */
+        public boolean hasLoadingDock()
+        {
+            return hasFlag(PropertyType.COMMERCIAL, FIRST_FLAG);
+        }
+
+        /**
+         * Returns true if the property is a commercial property with highway access.
+         *
+         * @return true if the commercial property has highway access
+         */
+        public boolean hasHighwayAccess()
+        {
+            return hasFlag(PropertyType.COMMERCIAL, SECOND_FLAG);
+        }
+
+        /**
+         * Returns true if the property is a retail property with customer parking.
+         *
+         * @return true if the retail property has customer parking
+         */
+        public boolean isCustomerParking()
+        {
+            return hasFlag(PropertyType.RETAIL, FIRST_FLAG);
+        }
+
+        /**
+         * Builds a Residence, Commercial or Retail object with the values of the current record.
+         *
+         * @return a new Property
+         */
+        public Property toProperty()
+        {
+            return switch(getType())
+            {
+                case RESIDENCE -> new Residence(getPriceUsd(), getAddress(), getNumberOfBedrooms(),
+                                                hasSwimmingPool(), getPropertyId(), hasStrata());
+                case COMMERCIAL -> new Commercial(getPriceUsd(), getAddress(), getPropertyId(),
+                                                  hasLoadingDock(), hasHighwayAccess());
+                case RETAIL -> new Retail(getPriceUsd(), getAddress(), getPropertyId(),
+                                          getSquareFootage(), isCustomerParking());
+            };
+        }
+
+        private boolean hasFlag(final PropertyType type, final int flag)
+        {
+            return getType() == type && (chunk.get(base + FLAGS_OFFSET) & flag) != 0;
+        }
+    }
+
+    /*
+     * An open-addressing table from packed ID to record number, held in direct memory.
+     */
+    private static final class RecordTable
+    {
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final long EMPTY = 0L;
+        private static final long FIBONACCI_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+        private ByteBuffer keys;
+        private ByteBuffer records;
+        private int capacity;
+        private int shift;
+        private int size;
+
+        private RecordTable()
+        {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private int get(final long key)
+        {
+            final int slot;
+            slot = find(key);
+
+            return keys.getLong(slot * Long.BYTES) == EMPTY ? NO_RECORD : records.getInt(slot * Integer.BYTES);
+        }
+
+        private void put(final long key, final int record)
+        {
+            final int slot;
+            slot = find(key);
+
+            if(keys.getLong(slot * Long.BYTES) == EMPTY)
+            {
+                size++;
+            }
+            keys.putLong(slot * Long.BYTES, key);
+            records.putInt(slot * Integer.BYTES, record);
+
+            if(size * 2 > capacity)
+            {
+                resize();
+            }
+        }
+
+        private int remove(final long key)
+        {
+            final int mask;
+            final int record;
+            int gap;
+            int next;
+
+            gap = find(key);
+            if(keys.getLong(gap * Long.BYTES) == EMPTY)
+            {
+                return NO_RECORD;
+            }
+
+            record = records.getInt(gap * Integer.BYTES);
+            mask = capacity - 1;
+            next = (gap + 1) & mask;
+
+            // Move later entries of the probe run back into the gap, as PropertyIdMap does
+            while(keys.getLong(next * Long.BYTES) != EMPTY)
+            {
+                final long moving = keys.getLong(next * Long.BYTES);
+                final int home = home(moving);
+
+                if(((next - home) & mask) >= ((next - gap) & mask))
+                {
+                    keys.putLong(gap * Long.BYTES, moving);
+                    records.putInt(gap * Integer.BYTES, records.getInt(next * Integer.BYTES));
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+
+            keys.putLong(gap * Long.BYTES, EMPTY);
+            size--;
+            return record;
+        }
+
+        private int find(final long key)
+        {
+            final int mask;
+            int slot;
+
+            mask = capacity - 1;
+            slot = home(key);
+
+            while(true)
+            {
+                final long stored = keys.getLong(slot * Long.BYTES);
+
+                if(stored == EMPTY || stored == key)
+                {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private int home(final long key)
+        {
+            return (int) ((key * FIBONACCI_MULTIPLIER) >>> shift);
+        }
+
+        private void resize()
+        {
+            final ByteBuffer oldKeys;
+            final ByteBuffer oldRecords;
+            final int oldCapacity;
+
+            oldKeys = keys;
+            oldRecords = records;
+            oldCapacity = capacity;
+            allocate(capacity * 2);
+
+            for(int i = 0; i < oldCapacity; i++)
+            {
+                final long key = oldKeys.getLong(i * Long.BYTES);
+
+                if(key != EMPTY)
+                {
+                    final int slot = find(key);
+
+                    keys.putLong(slot * Long.BYTES, key);
+                    records.putInt(slot * Integer.BYTES, oldRecords.getInt(i * Integer.BYTES));
+                }
+            }
+        }
+
+        private void allocate(final int newCapacity)
+        {
+            capacity = newCapacity;
+            shift = Long.numberOfLeadingZeros(newCapacity - 1);
+            keys = ByteBuffer.allocateDirect(newCapacity * Long.BYTES);
+            records = ByteBuffer.allocateDirect(newCapacity * Integer.BYTES);
+        }
+    }
+}
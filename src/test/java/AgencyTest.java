@@ -2,18 +2,56 @@ package test.java;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import main.java.Agency;
+import main.java.AgencyChangeListener;
+import main.java.ConcurrentAgency;
+import main.java.Driver;
+import main.java.VersionedAgency;
 import main.java.address.Address;
+import main.java.http.AgencyHttpServer;
+import main.java.address.AddressPool;
 import main.java.address.AddressReader;
+import main.java.index.ColumnarSnapshot;
+import main.java.index.PriceSummary;
+import main.java.index.PropertyIdMap;
+import main.java.io.AgencySnapshot;
+import main.java.io.IngestResult;
+import main.java.io.ListingIngestor;
+import main.java.io.ListingTailer;
+import main.java.io.ParallelFeedLoader;
+import main.java.io.PipeRecordReader;
+import main.java.io.WriteAheadLog;
 import main.java.property.*;
+import main.java.query.Page;
+import main.java.query.PropertyQuery;
+import main.java.query.QueryCache;
+import main.java.query.QueryPlan;
+import main.java.query.TopK;
+import main.java.store.OffHeapPropertyStore;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -25,34 +63,8 @@ class AgencyTest {
 	@BeforeAll
 	static void setUpBeforeClass() throws Exception {
 
-		ArrayList<Address> addresses = AddressReader.readAddressData(new File("address_data.txt"));
-
-		ArrayList<String> propertyData = PropertyReader.readPropertyData(new File("property_data.txt"));
-
 		agency = new Agency("Properties R Us");
-
-		int addressesIndex = 0;
-		for (String line : propertyData) {
-
-			String[] rawData = line.split("\\|");
-			if (rawData[3].equalsIgnoreCase("residence")) {
-				agency.addProperty(new Residence(Double.parseDouble(rawData[0]), addresses.get(addressesIndex),
-												 Integer.parseInt(rawData[1]), Boolean.parseBoolean(rawData[2]), rawData[3], rawData[4],
-												 Boolean.parseBoolean(rawData[5])));
-
-			} else if (rawData[1].equalsIgnoreCase("commercial")) {
-
-				agency.addProperty(new Commercial(Double.parseDouble(rawData[0]), addresses.get(addressesIndex),
-												  rawData[1], rawData[2], Boolean.parseBoolean(rawData[3]), Boolean.parseBoolean(rawData[4])));
-
-			} else {
-
-				agency.addProperty(new Retail(Double.parseDouble(rawData[0]), addresses.get(addressesIndex), rawData[1],
-											  rawData[2], Integer.parseInt(rawData[3]), Boolean.parseBoolean(rawData[4])));
-			}
-
-			addressesIndex++;
-		}
+		ListingIngestor.ingest(new File("address_data.txt"), new File("property_data.txt"), agency::addProperty);
 	}
 
 	@AfterAll
@@ -80,6 +92,35 @@ class AgencyTest {
 		assertEquals("9000a", props[1].getPropertyId());
 	}
 
+	@Test
+	void testGetPropertiesBetweenTracksPriceChanges() {
+		Agency local = localAgency();
+		Address address = elmStreet();
+		Retail first = new Retail(300.0, address, "r1", 500, false);
+		Retail second = new Retail(100.0, address, "r2", 500, false);
+		Retail third = new Retail(200.0, address, "r3", 500, false);
+		local.addProperty(first);
+		local.addProperty(second);
+		local.addProperty(third);
+
+		Property[] props = local.getPropertiesBetween(100.0, 300.0);
+		assertEquals(3, props.length);
+		assertEquals("r2", props[0].getPropertyId());
+		assertEquals("r3", props[1].getPropertyId());
+		assertEquals("r1", props[2].getPropertyId());
+
+		first.setPriceUsd(50.0);
+		props = local.getPropertiesBetween(100.0, 300.0);
+		assertEquals(2, props.length);
+		assertEquals("r1", local.getPropertiesBetween(0.0, 99.0)[0].getPropertyId());
+
+		local.removeProperty("r2");
+		props = local.getPropertiesBetween(100.0, 300.0);
+		assertEquals(1, props.length);
+		assertEquals("r3", props[0].getPropertyId());
+		assertNull(local.getPropertiesBetween(300.0, 100.0));
+	}
+
 	@Test
 	void testGetPropertiesOn() {
 
@@ -90,6 +131,19 @@ class AgencyTest {
 		assertEquals(null, addresses);
 	}
 
+	@Test
+	void testGetPropertiesOnIgnoringCase() {
+		assertNull(agency.getPropertiesOn("Elm Street"));
+		ArrayList<Address> addresses = agency.getPropertiesOn(" Elm Street", true);
+		assertEquals(3, addresses.size());
+		for (Address address : addresses) {
+			assertEquals("elm street", address.streetName());
+		}
+		assertEquals(3, agency.getPropertiesOn("elm street", false).size());
+		assertNull(agency.getPropertiesOn(null));
+		assertNull(agency.getPropertiesOn(null, true));
+	}
+
 	@Test
 	void testGetPropertiesOfType() {
 		ArrayList<Property> props = agency.getPropertiesOfType("residence");
@@ -100,6 +154,11 @@ class AgencyTest {
 		assertEquals(2, props.size());
 		props = agency.getPropertiesOfType("appartments");
 		assertEquals(0, props.size());
+		props = agency.getPropertiesOfType(PropertyType.COMMERCIAL);
+		assertEquals(3, props.size());
+		for (Property prop : props) {
+			assertEquals(PropertyType.COMMERCIAL, prop.getType());
+		}
 
 	}
 
@@ -116,7 +175,7 @@ class AgencyTest {
 
 	@Test
 	void testGetPropertiesWithBedrooms() {
-		HashMap<String, Residence> props = agency.getPropertiesWithBedrooms(3, 4);
+		Map<String, Residence> props = agency.getPropertiesWithBedrooms(3, 4);
 		SortedSet<String> keys = new TreeSet<>(props.keySet());
 		ArrayList<String> propsList = new ArrayList(keys);
 
@@ -125,6 +184,18 @@ class AgencyTest {
 		assertEquals("mr6789", props.get(propsList.get(1)).getPropertyId());
 	}
 
+	@Test
+	void testGetPropertiesWithBedroomsView() {
+		Map<String, Residence> props = agency.getPropertiesWithBedrooms(5, 10);
+		assertEquals(3, props.size());
+		assertTrue(props.containsKey("xyz789"));
+		assertEquals("mmm33", props.get("mmm33").getPropertyId());
+		assertNull(props.get("9000a"));
+		assertThrows(UnsupportedOperationException.class, () -> props.remove("xyz789"));
+		assertNull(agency.getPropertiesWithBedrooms(11, 19));
+		assertNull(agency.getPropertiesWithBedrooms(4, 3));
+	}
+
 	@Test
 	void testGetPropertiesWithStrata() {
 		ArrayList<Residence> props = agency.getPropertiesWithStrata();
@@ -153,6 +224,36 @@ class AgencyTest {
 		assertEquals("876tru", props.get(0).getPropertyId());
 	}
 
+	@Test
+	void testGetPropertiesSquareFootageRange() {
+		ArrayList<Retail> props = agency.getPropertiesSquareFootage(700, 800);
+		assertEquals(2, props.size());
+		assertEquals("y6yyy", props.get(0).getPropertyId());
+		assertEquals("876tru", props.get(1).getPropertyId());
+		assertEquals(0, agency.getPropertiesSquareFootage(801, 5000).size());
+	}
+
+	@Test
+	void testGetPropertiesPricePerSquareFoot() {
+		Agency local = localAgency();
+		Address address = elmStreet();
+		Retail small = new Retail(100000.0, address, "r1", 100, false);
+		Retail large = new Retail(100000.0, address, "r2", 1000, true);
+		local.addProperty(small);
+		local.addProperty(large);
+		local.addProperty(new Retail(100000.0, address, "r3", 0, true));
+
+		ArrayList<Retail> props = local.getPropertiesPricePerSquareFoot(0.0, 500.0);
+		assertEquals(1, props.size());
+		assertEquals("r2", props.get(0).getPropertyId());
+
+		small.setPriceUsd(10000.0);
+		props = local.getPropertiesPricePerSquareFoot(0.0, 500.0);
+		assertEquals(2, props.size());
+		assertEquals("r1", props.get(0).getPropertyId());
+		assertEquals(3, local.getPropertiesSquareFootage(0, 1000).size());
+	}
+
 	@Test
 	void testGetPropertiesWithCustomerParking() {
 		ArrayList<Retail> props = agency.getPropertiesWithCustomerParking();
@@ -160,4 +261,1017 @@ class AgencyTest {
 		assertEquals("876tru", props.get(0).getPropertyId());
 	}
 
+	@Test
+	void testGetPropertiesWithAllAmenities() {
+		ArrayList<Property> props = agency.getPropertiesWithAll(EnumSet.of(Amenity.SWIMMING_POOL),
+																 EnumSet.of(Amenity.STRATA));
+		assertEquals(3, props.size());
+		props = agency.getPropertiesWithAll(EnumSet.of(Amenity.LOADING_DOCK, Amenity.HIGHWAY_ACCESS),
+											EnumSet.noneOf(Amenity.class));
+		assertEquals(1, props.size());
+		assertEquals("678T", props.get(0).getPropertyId());
+		props = agency.getPropertiesWithAll(EnumSet.of(Amenity.SWIMMING_POOL, Amenity.LOADING_DOCK),
+											EnumSet.noneOf(Amenity.class));
+		assertEquals(0, props.size());
+		props = agency.getPropertiesWithAll(EnumSet.noneOf(Amenity.class), EnumSet.of(Amenity.HIGHWAY_ACCESS));
+		assertEquals(10, props.size());
+	}
+
+	@Test
+	void testGetPropertiesWithAnyAmenity() {
+		ArrayList<Property> props = agency.getPropertiesWithAny(EnumSet.of(Amenity.LOADING_DOCK,
+																		   Amenity.CUSTOMER_PARKING));
+		props.sort((p1, p2) -> p1.getPropertyId().compareTo(p2.getPropertyId()));
+		assertEquals(2, props.size());
+		assertEquals("678T", props.get(0).getPropertyId());
+		assertEquals("876tru", props.get(1).getPropertyId());
+	}
+
+	@Test
+	void testQuery() {
+		PropertyQuery query = PropertyQuery.builder()
+				.ofType(PropertyType.RESIDENCE)
+				.bedroomsBetween(3, 5)
+				.priceBetween(500000.0, 2000000.0)
+				.onStreet("Elm Street")
+				.build();
+		ArrayList<Property> props = agency.query(query);
+		assertEquals(1, props.size());
+		assertEquals("9000a", props.get(0).getPropertyId());
+		// Three residences have 3 to 5 bedrooms and three properties are on elm street; on a tie the bedroom index is kept
+		QueryPlan plan = agency.plan(query);
+		assertEquals("bedroom index", plan.getAccessPath().getName());
+		assertEquals(3, plan.getEstimatedRows());
+		assertEquals(props, plan.execute());
+
+		query = PropertyQuery.builder().with(Amenity.SWIMMING_POOL).without(Amenity.STRATA).build();
+		assertEquals(3, agency.query(query).size());
+		assertEquals("amenity bitmaps", agency.plan(query).getAccessPath().getName());
+
+		query = PropertyQuery.builder().priceBetween(1000000.0, 2000000.0).inCity("West Vancouver").build();
+		assertEquals(0, agency.query(query).size());
+		assertEquals(3, agency.query(PropertyQuery.builder().inCity("LOS ANGELES").build()).size());
+		assertEquals(12, agency.query(PropertyQuery.builder().build()).size());
+	}
+
+	@Test
+	void testGetTotalPropertyValues() {
+		assertEquals(0, new BigDecimal("40079098").compareTo(agency.getTotalPropertyValues()));
+		PriceSummary commercial = agency.getPriceSummary(PropertyType.COMMERCIAL);
+		assertEquals(3, commercial.count());
+		assertEquals(99999.0, commercial.minUsd());
+		assertEquals(4000000.0, commercial.maxUsd());
+	}
+
+	@Test
+	void testPriceSummaryTracksChanges() {
+		Agency local = localAgency();
+		Address address = elmStreet();
+		Commercial tower = new Commercial(2000000000.0, address, "c1", true, true);
+		local.addProperty(tower);
+		local.addProperty(new Commercial(2000000000.0, address, "c2", true, true));
+		local.addProperty(new Retail(5.0, address, "r1", 10, true));
+		assertEquals(0, new BigDecimal("4000000005").compareTo(local.getTotalPropertyValues()));
+
+		tower.setPriceUsd(1.0);
+		PriceSummary summary = local.getPriceSummary();
+		assertEquals(3, summary.count());
+		assertEquals(1.0, summary.minUsd());
+		assertEquals(2000000000.0, summary.maxUsd());
+
+		local.removeProperty("c2");
+		local.removeProperty("r1");
+		summary = local.getPriceSummary(PropertyType.COMMERCIAL);
+		assertEquals(1, summary.count());
+		assertEquals(1.0, summary.maxUsd());
+		assertTrue(Double.isNaN(local.getPriceSummary(PropertyType.RETAIL).minUsd()));
+
+		// The extremes of each type follow removals of the current extreme
+		local.addProperty(new Retail(7.0, address, "r2", 10, true));
+		local.addProperty(new Retail(3.0, address, "r3", 10, true));
+		local.addProperty(new Retail(9.0, address, "r4", 10, true));
+		local.removeProperty("r3");
+		local.removeProperty("r4");
+		summary = local.getPriceSummary(PropertyType.RETAIL);
+		assertEquals(7.0, summary.minUsd());
+		assertEquals(7.0, summary.maxUsd());
+		assertEquals(1.0, local.getPriceSummary().minUsd());
+		assertEquals(7.0, local.getPriceSummary().maxUsd());
+	}
+
+	@Test
+	void testNonFinitePricesRejected() {
+		Agency local = localAgency();
+		Address address = elmStreet();
+		assertThrows(IllegalArgumentException.class,
+				() -> new Retail(Double.POSITIVE_INFINITY, address, "r1", 10, true));
+		assertThrows(IllegalArgumentException.class,
+				() -> new Commercial(Double.NaN, address, "c1", true, true));
+
+		Retail shop = new Retail(5.0, address, "r2", 10, true);
+		local.addProperty(shop);
+		assertThrows(IllegalArgumentException.class, () -> shop.setPriceUsd(Double.NaN));
+		assertEquals(5.0, shop.getPriceUsd());
+		assertEquals(1, local.getPropertiesBetween(5.0, 5.0).length);
+		assertEquals(0, new BigDecimal("5").compareTo(local.getTotalPropertyValues()));
+
+		// Prices with cents add up in decimal, without their binary expansion
+		local.addProperty(new Retail(19.99, address, "r3", 10, true));
+		shop.setPriceUsd(0.1);
+		assertEquals("20.09", local.getTotalPropertyValues().toPlainString());
+	}
+
+	@Test
+	void testColumnarSnapshot() {
+		ColumnarSnapshot snapshot = agency.getColumnarSnapshot();
+		assertSame(snapshot, agency.getColumnarSnapshot());
+		assertEquals(12, snapshot.getRowCount());
+		assertEquals(2, snapshot.countPriceBetween(1000000.0, 2000000.0));
+
+		long[] mask = snapshot.selectType(PropertyType.RESIDENCE);
+		ColumnarSnapshot.and(mask, snapshot.selectBedroomsBetween(3, 4));
+		ColumnarSnapshot.and(mask, snapshot.selectPriceBetween(1000000.0, 2000000.0));
+		ArrayList<Property> props = snapshot.materialize(mask);
+		assertEquals(1, props.size());
+		assertEquals("9000a", props.get(0).getPropertyId());
+
+		mask = ColumnarSnapshot.andNot(snapshot.selectAmenity(Amenity.SWIMMING_POOL),
+									   snapshot.selectAmenity(Amenity.STRATA));
+		assertEquals(3, ColumnarSnapshot.count(mask));
+		assertEquals(2, ColumnarSnapshot.count(snapshot.selectSquareFootageBetween(0, 1000)));
+	}
+
+	@Test
+	void testColumnarSnapshotRebuiltOnlyAfterModification() {
+		Agency local = localAgency();
+		agency.getProperties().forEach(local::addProperty);
+		ColumnarSnapshot snapshot = local.getColumnarSnapshot();
+
+		// Reads and changes which do nothing keep the snapshot
+		local.query(PropertyQuery.builder().ofType(PropertyType.RETAIL).build());
+		local.removeProperty("no such id");
+		assertSame(snapshot, local.getColumnarSnapshot());
+
+		local.removeProperty("9000a");
+		ColumnarSnapshot rebuilt = local.getColumnarSnapshot();
+		assertNotSame(snapshot, rebuilt);
+		assertEquals(11, rebuilt.getRowCount());
+		assertSame(rebuilt, local.getColumnarSnapshot());
+
+		Property shop = new Retail(1000.0, elmStreet(), "shop1", 500, false);
+		local.addProperty(shop);
+		rebuilt = local.getColumnarSnapshot();
+		shop.setPriceUsd(2000.0);
+		assertNotSame(rebuilt, local.getColumnarSnapshot());
+		assertEquals(1, local.getColumnarSnapshot().countPriceBetween(2000.0, 2000.0));
+	}
+
+	@Test
+	void testIngestMatchesReaders() throws Exception {
+		ArrayList<Address> addresses = AddressReader.readAddressData(new File("address_data.txt"));
+		ArrayList<Property> expected = new ArrayList<>();
+		PropertyReader.readPropertyData(new File("property_data.txt"), addresses, expected::add);
+
+		Agency streamed = new Agency("Streamed");
+		new Driver(streamed).init();
+		assertEquals(12, expected.size());
+		assertEquals(12, streamed.getPriceSummary().count());
+		for (Property prop : expected) {
+			assertEquals(prop.toString(), streamed.getProperty(prop.getPropertyId()).toString());
+		}
+	}
+
+	@Test
+	void testPipeRecordReader() throws Exception {
+		String data = "15000000.00|-0.5|1e3|0.1|123456789012345678901|TRUE|-42\r\n\n  |7|x\n";
+		PipeRecordReader reader = new PipeRecordReader(Channels.newChannel(
+				new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8))));
+
+		assertTrue(reader.next());
+		assertEquals(7, reader.getFieldCount());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Double.parseDouble(reader.getString(i)), reader.getDouble(i));
+		}
+		assertTrue(reader.getBoolean(5));
+		assertEquals(-42, reader.getInt(6));
+		assertThrows(NumberFormatException.class, () -> reader.getInt(0));
+
+		assertTrue(reader.next());
+		assertEquals(3, reader.getLineNumber());
+		assertEquals("  ", reader.getString(0));
+		assertEquals(7, reader.getInt(1));
+		assertFalse(reader.getBoolean(2));
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+	@Test
+	void testParallelFeedLoader() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ArrayList<Property> loaded = new ArrayList<>();
+		new ParallelFeedLoader(pool, 16).load(new File("address_data.txt"), new File("property_data.txt"),
+											  loaded::add);
+		pool.shutdown();
+
+		assertEquals(12, loaded.size());
+		assertEquals("abc123", loaded.get(0).getPropertyId());
+		assertEquals("9000a", loaded.get(11).getPropertyId());
+		for (Property prop : loaded) {
+			assertEquals(agency.getProperty(prop.getPropertyId()).toString(), prop.toString());
+		}
+	}
+
+	@Test
+	void testAgencySnapshot() throws Exception {
+		File file = File.createTempFile("agency", ".snapshot");
+		file.deleteOnExit();
+		AgencySnapshot.write(agency, file);
+
+		Agency restored = AgencySnapshot.read(file);
+		assertEquals(agency.getName(), restored.getName());
+		assertEquals(agency.getProperties().size(), restored.getProperties().size());
+		for (Property prop : agency.getProperties()) {
+			assertEquals(prop.toString(), restored.getProperty(prop.getPropertyId()).toString());
+		}
+		assertEquals(1, restored.getPropertiesWithCustomerParking().size());
+
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file.toPath(), bytes);
+		assertThrows(java.io.IOException.class, () -> AgencySnapshot.read(file));
+	}
+
+	@Test
+	void testAgencySnapshotOfChangingAgency() throws Exception {
+		ConcurrentAgency changing = new ConcurrentAgency("Changing");
+		Address address = elmStreet();
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+
+		Thread writer = new Thread(() -> {
+			for (int i = 0; !done.get(); i++) {
+				changing.addProperty(new Retail(1000.0, new Address(" ", i, "elm street", "90210", "los angeles"),
+						Integer.toString(i % 5000, 36), 500, false));
+				if (i % 3 == 0) {
+					changing.removeProperty(Integer.toString((i / 3) % 5000, 36));
+				}
+			}
+		});
+		changing.addProperty(new Retail(1000.0, address, "first", 500, false));
+		writer.start();
+		try {
+			for (int i = 0; i < 50; i++) {
+				Agency restored = AgencySnapshot.read(writeSnapshot(changing));
+				assertNotNull(restored.getProperty("first"));
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+	}
+
+	@Test
+	void testWriteAheadLogReplay() throws Exception {
+		File snapshot = File.createTempFile("agency", ".snapshot");
+		File log = File.createTempFile("agency", ".log");
+		snapshot.deleteOnExit();
+		log.deleteOnExit();
+		AgencySnapshot.write(agency, snapshot);
+
+		Agency primary = AgencySnapshot.read(snapshot);
+		WriteAheadLog wal = new WriteAheadLog(log, WriteAheadLog.SyncMode.MANUAL);
+		primary.addChangeListener(wal);
+		primary.getProperty("9000a").setPriceUsd(123456.0);
+		primary.removeProperty("777def");
+		primary.addProperty(new Retail(250000.0, elmStreet(), "w1", 500, true));
+		wal.close();
+
+		Agency recovered = AgencySnapshot.read(snapshot);
+		assertEquals(3, WriteAheadLog.replay(log, recovered));
+		assertEquals(0, primary.getTotalPropertyValues().compareTo(recovered.getTotalPropertyValues()));
+		assertEquals(123456.0, recovered.getProperty("9000a").getPriceUsd());
+		assertNull(recovered.getProperty("777def"));
+		assertEquals(primary.getProperty("w1").toString(), recovered.getProperty("w1").toString());
+
+		// A record torn by a crash is dropped and cut off the end of the log
+		long length = log.length();
+		Files.write(log.toPath(), new byte[] {0, 0, 0, 20, 1, 2, 3}, StandardOpenOption.APPEND);
+		assertEquals(3, WriteAheadLog.replay(log, AgencySnapshot.read(snapshot)));
+		assertEquals(length, log.length());
+	}
+
+	@Test
+	void testWriteAheadLogGroupCommit() throws Exception {
+		File log = File.createTempFile("agency", ".log");
+		log.deleteOnExit();
+		ConcurrentAgency shared = new ConcurrentAgency("Logged");
+		Address address = elmStreet();
+		Thread[] writers = new Thread[4];
+		for (int i = 0; i < writers.length; i++) {
+			shared.addProperty(new Retail(1000.0, address, "g" + i, 500, false));
+		}
+		File snapshot = writeSnapshot(shared);
+
+		WriteAheadLog wal = new WriteAheadLog(log, WriteAheadLog.SyncMode.GROUP_COMMIT);
+		shared.addChangeListener(wal);
+		for (int i = 0; i < writers.length; i++) {
+			String id = "g" + i;
+			writers[i] = new Thread(() -> {
+				for (int j = 1; j <= 50; j++) {
+					shared.setPriceUsd(id, j);
+				}
+			});
+			writers[i].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		long syncs = wal.getSyncCount();
+		wal.close();
+
+		// Writers append while another forces the file, so the 200 records share fewer forces
+		assertTrue(syncs > 0 && syncs < 200, "forces: " + syncs);
+		Agency recovered = AgencySnapshot.read(snapshot);
+		assertEquals(200, WriteAheadLog.replay(log, recovered));
+		for (int i = 0; i < writers.length; i++) {
+			assertEquals(50.0, recovered.getProperty("g" + i).getPriceUsd());
+		}
+	}
+
+	@Test
+	void testWriteAheadLogCheckpointDuringWrites() throws Exception {
+		File snapshot = writeSnapshot(new Agency("Logged"));
+		File log = File.createTempFile("agency", ".log");
+		log.deleteOnExit();
+		ConcurrentAgency shared = new ConcurrentAgency("Logged");
+		WriteAheadLog wal = new WriteAheadLog(log, WriteAheadLog.SyncMode.GROUP_COMMIT);
+		shared.addChangeListener(wal);
+		Address address = elmStreet();
+		java.util.concurrent.ConcurrentLinkedQueue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 300; i++) {
+				String id = "c" + Integer.toString(i, 36);
+				shared.addProperty(new Residence(1000.0 + i, address, 1 + i % 6, false, id, false));
+				shared.setPriceUsd(id, 2000.0 + i);
+				if (i % 3 == 0) {
+					shared.removeProperty(id);
+				}
+			}
+		});
+		Thread checkpointer = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					wal.checkpoint(shared, snapshot);
+				}
+			} catch (Exception e) {
+				failures.add(e);
+			}
+		});
+		writer.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+		writer.start();
+		checkpointer.start();
+		writer.join(10_000);
+		done.set(true);
+		checkpointer.join(10_000);
+		assertFalse(writer.isAlive(), "deadlocked");
+		assertFalse(checkpointer.isAlive(), "deadlocked");
+		wal.close();
+
+		assertTrue(failures.isEmpty(), failures.toString());
+		Agency recovered = AgencySnapshot.read(snapshot);
+		WriteAheadLog.replay(log, recovered);
+		assertEquals(shared.getProperties().size(), recovered.getProperties().size());
+		assertEquals(0, shared.getTotalPropertyValues().compareTo(recovered.getTotalPropertyValues()));
+	}
+
+	private static File writeSnapshot(Agency source) throws Exception {
+		File file = File.createTempFile("agency", ".snapshot");
+		file.deleteOnExit();
+		AgencySnapshot.write(source, file);
+		return file;
+	}
+
+	@Test
+	void testListingTailerPollsAppendedLines() throws Exception {
+		File addresses = File.createTempFile("address", ".txt");
+		File properties = File.createTempFile("property", ".txt");
+		addresses.deleteOnExit();
+		properties.deleteOnExit();
+
+		Agency tailed = new Agency("Tailed");
+		ListingTailer tailer = new ListingTailer(addresses, properties, tailed::addProperty);
+		append(addresses, "1a|777|56th avenue|v7n2m8|surrey\n");
+		append(properties, "499000.0|2|false|residence|abc123|true\n5999999.0|5|true|resi");
+		assertEquals(1, tailer.poll());
+
+		// The second property waits for the rest of its line and for its address
+		append(properties, "dence|xyz789|false\n");
+		assertEquals(0, tailer.poll());
+		append(addresses, " |123|main street|v7r2g2|west vancouver\n");
+		assertEquals(1, tailer.poll());
+		assertEquals("main street", tailed.getProperty("xyz789").getAddress().streetName());
+		assertEquals(properties.length(), tailer.getPropertyOffset());
+		assertEquals(0, tailer.poll());
+	}
+
+	@Test
+	void testListingTailerStartsAfterIngest() throws Exception {
+		File addresses = File.createTempFile("address", ".txt");
+		File properties = File.createTempFile("property", ".txt");
+		addresses.deleteOnExit();
+		properties.deleteOnExit();
+		append(addresses, "1a|777|56th avenue|v7n2m8|surrey\n |123|main street|v7r2g2|west vancouver\n");
+		append(properties, "499000.0|2|false|residence|abc123|true\n");
+
+		Agency tailed = new Agency("Tailed");
+		IngestResult loaded = ListingIngestor.ingestWithOffsets(addresses, properties, tailed::addProperty);
+		assertEquals(1, loaded.count());
+		assertEquals(properties.length(), loaded.propertyOffset());
+		assertTrue(loaded.addressOffset() < addresses.length());
+
+		// The address left over from the load pairs with the next appended property
+		ListingTailer tailer = new ListingTailer(addresses, properties, tailed::addProperty,
+				loaded.addressOffset(), loaded.propertyOffset());
+		assertEquals(0, tailer.poll());
+		append(properties, "5999999.0|5|true|residence|xyz789|false\n");
+		assertEquals(1, tailer.poll());
+		assertEquals("main street", tailed.getProperty("xyz789").getAddress().streetName());
+		assertEquals(2, tailed.getProperties().size());
+	}
+
+	@Test
+	void testListingTailerRunsInBackground() throws Exception {
+		File addresses = File.createTempFile("address", ".txt");
+		File properties = File.createTempFile("property", ".txt");
+		addresses.deleteOnExit();
+		properties.deleteOnExit();
+
+		Map<String, Property> received = new java.util.concurrent.ConcurrentHashMap<>();
+		ListingTailer tailer = new ListingTailer(addresses, properties, p -> received.put(p.getPropertyId(), p));
+		Thread thread = new Thread(tailer);
+		thread.start();
+
+		append(addresses, " |456|elm street|90210|los angeles\n");
+		append(properties, "2500000.0|6|true|residence|777def|false\n");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		tailer.close();
+		thread.join(5000);
+
+		assertTrue(received.containsKey("777def"));
+		assertFalse(thread.isAlive());
+	}
+
+	@Test
+	void testListingTailerSurvivesMalformedLine() throws Exception {
+		File addresses = File.createTempFile("address", ".txt");
+		File properties = File.createTempFile("property", ".txt");
+		addresses.deleteOnExit();
+		properties.deleteOnExit();
+
+		Map<String, Property> received = new java.util.concurrent.ConcurrentHashMap<>();
+		ListingTailer tailer = new ListingTailer(addresses, properties, p -> received.put(p.getPropertyId(), p));
+		Thread thread = new Thread(tailer);
+		thread.start();
+
+		append(addresses, " |456|elm street|90210|los angeles\n");
+		append(properties, "not a price|6|true|residence|777def|false\n");
+		Thread.sleep(3 * ListingTailer.POLL_INTERVAL_MILLIS);
+		assertTrue(thread.isAlive());
+		assertTrue(received.isEmpty());
+
+		// A line with too few fields is reported the same way
+		Files.write(properties.toPath(), "garbage\n".getBytes(StandardCharsets.UTF_8));
+		Thread.sleep(3 * ListingTailer.POLL_INTERVAL_MILLIS);
+		assertTrue(thread.isAlive());
+		assertTrue(received.isEmpty());
+
+		// Once the line is corrected the next poll picks it up
+		Files.write(properties.toPath(), "2500000.0|6|true|residence|777def|false\n".getBytes(StandardCharsets.UTF_8));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		tailer.close();
+		thread.join(5000);
+
+		assertTrue(received.containsKey("777def"));
+		assertFalse(thread.isAlive());
+	}
+
+	private static Agency localAgency() {
+		return new Agency("Local");
+	}
+
+	// A new instance on every call, so tests comparing identities get distinct but equal addresses
+	private static Address elmStreet() {
+		return new Address(" ", 1, "elm street", "90210", "los angeles");
+	}
+
+	private static void append(File file, String text) throws Exception {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+	}
+
+	@Test
+	void testAddressPool() {
+		AddressPool pool = new AddressPool();
+		String first = new String("elm street");
+		String second = new String("elm street");
+		assertSame(first, pool.intern(first));
+		assertSame(first, pool.intern(second));
+		assertEquals(1, pool.getStringCount());
+		// 56 bytes saved by the duplicate, less 40 for the pool entry
+		assertEquals(16, pool.getBytesSaved());
+
+		Address address = elmStreet();
+		Address duplicate = elmStreet();
+		assertSame(duplicate, pool.intern(duplicate));
+		pool.setAddressSharing(true);
+		assertSame(address, pool.intern(address));
+		assertSame(address, pool.intern(duplicate));
+		assertEquals(8, pool.getBytesSaved());
+		pool.setAddressSharing(false);
+
+		// Addresses built by the pool share its street names and cities, but not their unit numbers or postal codes
+		String postalCode = new String("90210");
+		Address other = pool.address(" ", 2, new String("elm street"), postalCode, new String("los angeles"));
+		assertSame(first, other.streetName());
+		assertSame(postalCode, other.postalCode());
+		assertSame(other.city(), pool.address(" ", 3, "elm street", "90211", new String("los angeles")).city());
+		assertEquals(2, pool.getStringCount());
+
+		// The Address constructor itself pools nothing
+		assertNotSame(first, new Address(" ", 4, second, "90210", "los angeles").streetName());
+	}
+
+	@Test
+	void testIngestThroughCallersPool() throws Exception {
+		AddressPool pool = new AddressPool();
+		pool.setAddressSharing(true);
+		Agency pooled = new Agency("Pooled");
+		ListingIngestor.ingestWithOffsets(new File("address_data.txt"), new File("property_data.txt"), pool, pooled::addProperty);
+
+		// Every address is distinct, so on a feed this small the pool's own entries outweigh what it saves
+		assertEquals(12, pool.getAddressCount());
+		assertEquals(18, pool.getStringCount());
+		assertTrue(pool.getBytesSaved() < 0);
+		List<Address> onElm = pooled.getPropertiesOn("elm street");
+		assertEquals(3, onElm.size());
+		assertSame(onElm.get(0).streetName(), onElm.get(1).streetName());
+		assertSame(onElm.get(1).streetName(), onElm.get(2).streetName());
+	}
+
+	@Test
+	void testPropertyIdMap() {
+		assertEquals(PropertyIdMap.NOT_PACKABLE, PropertyIdMap.encode("\u65e5\u672c"));
+		assertEquals(PropertyIdMap.NOT_PACKABLE, PropertyIdMap.encode("abcdefg"));
+		assertFalse(PropertyIdMap.encode("a") == PropertyIdMap.encode("a\u0000"));
+
+		Address address = elmStreet();
+		PropertyIdMap<Retail> map = new PropertyIdMap<>();
+		Map<String, Retail> expected = new java.util.HashMap<>();
+		java.util.Random random = new java.util.Random(17);
+		for (int i = 0; i < 20000; i++) {
+			String id = Integer.toString(random.nextInt(3000), 36) + (i % 97 == 0 ? "\u00e9\u65e5" : "");
+			if (random.nextInt(3) == 0) {
+				assertSame(expected.remove(id), map.remove(id));
+			} else {
+				Retail retail = new Retail(i, address, id, 500, false);
+				assertSame(expected.put(id, retail), map.put(retail));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (String id : expected.keySet()) {
+			assertSame(expected.get(id), map.get(id));
+		}
+		assertEquals(new java.util.HashSet<>(expected.values()), new java.util.HashSet<>(map.values()));
+		assertNull(map.get("zzzzzz"));
+	}
+
+	@Test
+	void testOffHeapPropertyStore() {
+		OffHeapPropertyStore store = new OffHeapPropertyStore();
+		agency.getProperties().forEach(store::addProperty);
+		assertEquals(12, store.size());
+		for (Property prop : agency.getProperties()) {
+			assertEquals(prop.toString(), store.getProperty(prop.getPropertyId()).toString());
+		}
+		assertEquals(agency.getPropertiesBetween(0, 1000000).length, store.countPriceBetween(0, 1000000));
+
+		OffHeapPropertyStore.Cursor cursor = new OffHeapPropertyStore.Cursor();
+		assertTrue(store.find("9000a", cursor));
+		assertTrue(store.setPriceUsd("9000a", 42.0));
+		assertEquals(42.0, cursor.getPriceUsd());
+		assertEquals(PropertyType.RESIDENCE, cursor.getType());
+		assertEquals(-1, cursor.getSquareFootage());
+
+		// Removed records are reused, and IDs which cannot be packed still work
+		assertTrue(store.removeProperty("9000a"));
+		assertFalse(store.removeProperty("9000a"));
+		assertNull(store.getProperty("9000a"));
+		Address address = elmStreet();
+		store.addProperty(new Retail(300.0, address, "\u65e5\u672c", 500, true));
+		assertEquals(12, store.size());
+		assertTrue(store.find("\u65e5\u672c", cursor));
+		assertEquals(500, cursor.getSquareFootage());
+		assertTrue(cursor.isCustomerParking());
+
+		int[] visited = new int[1];
+		store.forEach(c -> visited[0]++);
+		assertEquals(12, visited[0]);
+	}
+
+	@Test
+	void testConcurrentAgencyUnderMixedLoad() throws Exception {
+		ConcurrentAgency shared = new ConcurrentAgency("Concurrent");
+		agency.getProperties().forEach(shared::addProperty);
+		Address address = elmStreet();
+		int writers = 4;
+		int perWriter = 2000;
+		java.util.concurrent.ConcurrentLinkedQueue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int w = 0; w < writers; w++) {
+			int writer = w;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < perWriter; i++) {
+					String id = "w" + writer + Integer.toString(i, 36);
+					shared.addProperty(new Residence(1000.0 + i, address, 1 + i % 6, i % 2 == 0, id, false));
+					// A price set on the Property itself is applied under the write lock too
+					if (i % 2 == 0) {
+						shared.setPriceUsd(id, 2000.0 + i);
+					} else {
+						shared.getProperty(id).setPriceUsd(2000.0 + i);
+					}
+					if (i % 4 == 0) {
+						shared.removeProperty(id);
+					}
+				}
+			}));
+		}
+		for (int r = 0; r < 4; r++) {
+			threads.add(new Thread(() -> {
+				while (!done.get()) {
+					shared.getPropertiesBetween(0, 5000);
+					shared.getPropertiesWithBedrooms(2, 4);
+					shared.query(PropertyQuery.builder().ofType(PropertyType.RESIDENCE).bedroomsBetween(1, 3).build());
+					shared.getPriceSummary();
+					shared.getProperty("9000a");
+					shared.getPropertiesOn("elm street", true);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+			thread.start();
+		}
+		for (int w = 0; w < writers; w++) {
+			threads.get(w).join();
+		}
+		done.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty(), failures.toString());
+		int expected = 12 + writers * (perWriter - perWriter / 4);
+		assertEquals(expected, shared.getProperties().size());
+		assertEquals(expected, shared.getPriceSummary().count());
+		BigDecimal total = BigDecimal.ZERO;
+		for (Property prop : shared.getProperties()) {
+			total = total.add(BigDecimal.valueOf(prop.getPriceUsd()));
+		}
+		assertEquals(0, total.compareTo(shared.getTotalPropertyValues()));
+	}
+
+	@Test
+	void testConcurrentAgencyNestedReadsWithQueuedWriter() throws Exception {
+		ConcurrentAgency shared = new ConcurrentAgency("Concurrent");
+		agency.getProperties().forEach(shared::addProperty);
+		shared.addProperty(new Residence(1000.0, elmStreet(), 3, false, "n1", false));
+		PropertyQuery residences = PropertyQuery.builder().ofType(PropertyType.RESIDENCE).build();
+		long deadline = System.nanoTime() + 500_000_000L;
+		java.util.concurrent.ConcurrentLinkedQueue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+		int[] listenerReads = new int[1];
+		shared.addChangeListener(new AgencyChangeListener() {
+			public void propertyAdded(Property property) {
+			}
+
+			public void propertyRemoved(Property property) {
+			}
+
+			public void priceChanged(Property property, double oldPriceUsd, double newPriceUsd) {
+				listenerReads[0] += shared.query(residences).size();
+			}
+		});
+
+		ArrayList<Thread> threads = new ArrayList<>();
+		threads.add(new Thread(() -> {
+			for (int i = 0; System.nanoTime() < deadline; i++) {
+				shared.setPriceUsd("n1", 1000.0 + i % 100);
+			}
+		}));
+		for (int r = 0; r < 4; r++) {
+			threads.add(new Thread(() -> {
+				while (System.nanoTime() < deadline) {
+					shared.page(residences, 2, null);
+					shared.getCheapest(residences, 3);
+					shared.getMostExpensive(residences, 3);
+					shared.getTop(residences, 3, Comparator.comparing(Property::getPropertyId));
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join(10_000);
+			assertFalse(thread.isAlive(), "deadlocked");
+		}
+
+		assertTrue(failures.isEmpty(), failures.toString());
+		assertTrue(listenerReads[0] > 0);
+	}
+
+	@Test
+	void testVersionedAgencySnapshotIsolation() {
+		VersionedAgency versioned = new VersionedAgency("Versioned");
+		versioned.reload(batch -> agency.getProperties().forEach(batch::addProperty));
+		double originalPrice = agency.getProperty("9000a").getPriceUsd();
+
+		try (VersionedAgency.Snapshot before = versioned.pin()) {
+			versioned.update(batch -> {
+				batch.setPriceUsd("9000a", 1.0);
+				batch.removeProperty("777def");
+			});
+			assertEquals(2, versioned.getLiveVersionCount());
+
+			// The pinned version still holds the old prices and properties
+			Agency old = before.getAgency();
+			assertEquals(originalPrice, old.getProperty("9000a").getPriceUsd());
+			assertNotNull(old.getProperty("777def"));
+			assertEquals(0, old.getTotalPropertyValues().compareTo(agency.getTotalPropertyValues()));
+			assertThrows(UnsupportedOperationException.class, () -> old.removeProperty("9000a"));
+
+			assertEquals(1.0, (double) versioned.read(current -> current.getProperty("9000a").getPriceUsd()));
+			assertEquals(11L, (long) versioned.read(current -> current.getPriceSummary().count()));
+		}
+		assertEquals(1, versioned.getLiveVersionCount());
+		assertEquals(2, versioned.getVersion());
+		assertEquals(originalPrice, agency.getProperty("9000a").getPriceUsd());
+	}
+
+	@Test
+	void testVersionedAgencyReadersNeverSeeHalfLoads() throws Exception {
+		VersionedAgency versioned = new VersionedAgency("Versioned");
+		Address address = elmStreet();
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+		java.util.concurrent.atomic.AtomicInteger inconsistent = new java.util.concurrent.atomic.AtomicInteger();
+
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				versioned.read(current -> {
+					long count = current.getPriceSummary().count();
+					int byType = current.getPropertiesOfType(PropertyType.RESIDENCE).size()
+							+ current.getPropertiesOfType(PropertyType.RETAIL).size();
+					if (count != byType || count % 100 != 0) {
+						inconsistent.incrementAndGet();
+					}
+					return null;
+				});
+			}
+		});
+		reader.start();
+		for (int load = 1; load <= 20; load++) {
+			int size = load * 100;
+			versioned.reload(batch -> {
+				for (int i = 0; i < size; i++) {
+					String id = Integer.toString(i, 36);
+					batch.addProperty(i % 2 == 0 ? new Residence(1000.0, address, 2, false, id, false)
+							: new Retail(1000.0, address, id, 500, false));
+				}
+			});
+		}
+		done.set(true);
+		reader.join();
+
+		assertEquals(0, inconsistent.get());
+		assertEquals(1, versioned.getLiveVersionCount());
+	}
+
+	@Test
+	void testHttpServerAnswersQueries() throws Exception {
+		ConcurrentAgency served = new ConcurrentAgency("Served");
+		agency.getProperties().forEach(served::addProperty);
+
+		try (AgencyHttpServer server = new AgencyHttpServer(served, new InetSocketAddress("localhost", 0))) {
+			server.start();
+			HttpClient client = HttpClient.newHttpClient();
+			String base = "http://localhost:" + server.getPort();
+
+			HttpResponse<String> byId = get(client, base + "/properties/9000a");
+			assertEquals(200, byId.statusCode());
+			assertTrue(byId.body().contains("\"id\":\"9000a\""), byId.body());
+			assertTrue(byId.body().contains("\"bedrooms\":"), byId.body());
+
+			assertEquals(404, get(client, base + "/properties/nope").statusCode());
+			// The server routes by prefix, so this would otherwise look up 9000a
+			HttpResponse<String> unknown = get(client, base + "/propertiesX9000a");
+			assertEquals(404, unknown.statusCode());
+			assertFalse(unknown.body().contains("\"id\":\"9000a\""), unknown.body());
+			assertEquals(404, get(client, base + "/summaryXYZ").statusCode());
+			assertEquals(400, get(client, base + "/properties?minPrice=cheap").statusCode());
+			assertEquals(400, get(client, base + "/properties?colour=red").statusCode());
+			assertEquals(400, get(client, base + "/properties?with=moat").statusCode());
+
+			HttpResponse<String> retail = get(client, base + "/properties?type=retail");
+			assertEquals(200, retail.statusCode());
+			assertEquals(2, retail.body().split("\"type\":\"retail\"", -1).length - 1);
+
+			HttpResponse<String> street = get(client, base + "/properties?street=Elm%20Street&type=residence");
+			assertTrue(street.body().contains("\"9000a\""), street.body());
+
+			HttpResponse<String> summary = get(client, base + "/summary?type=commercial");
+			assertTrue(summary.body().startsWith("{\"count\":3,"), summary.body());
+
+			// Many requests in flight at once are all answered
+			List<CompletableFuture<HttpResponse<String>>> pending = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				pending.add(client.sendAsync(HttpRequest.newBuilder(URI.create(base + "/properties?minBedrooms=1")).build(),
+						HttpResponse.BodyHandlers.ofString()));
+			}
+			for (CompletableFuture<HttpResponse<String>> response : pending) {
+				assertEquals(200, response.get().statusCode());
+			}
+		}
+	}
+
+	@Test
+	void testQueryAllMatchesEachQueryRunAlone() {
+		List<PropertyQuery> queries = new ArrayList<>();
+		queries.add(PropertyQuery.builder().build());
+		queries.add(PropertyQuery.builder().ofType(PropertyType.RETAIL).build());
+		queries.add(PropertyQuery.builder().with(Amenity.SWIMMING_POOL).without(Amenity.STRATA).build());
+		queries.add(PropertyQuery.builder().bedroomsBetween(2, 4).priceBetween(0, 2_000_000).build());
+		queries.add(PropertyQuery.builder().onStreet("elm street").build());
+		for (double min = 0; min < 5_000_000; min += 250_000) {
+			queries.add(PropertyQuery.builder().priceBetween(min, min + 250_000).build());
+			queries.add(PropertyQuery.builder().ofType(PropertyType.COMMERCIAL).priceBetween(min, min + 1_000_000).build());
+		}
+
+		List<ArrayList<Property>> results = agency.queryAll(queries);
+		assertEquals(queries.size(), results.size());
+		for (int i = 0; i < queries.size(); i++) {
+			assertEquals(new TreeSet<>(ids(agency.query(queries.get(i)))), new TreeSet<>(ids(results.get(i))), "query " + i);
+		}
+		assertEquals(12, results.get(0).size());
+		assertEquals(2, results.get(1).size());
+		assertTrue(agency.queryAll(List.of()).isEmpty());
+		assertThrows(NullPointerException.class, () -> agency.queryAll(Arrays.asList(queries.get(0), null)));
+	}
+
+	@Test
+	void testStreamIsLazyAndPagesFollowPriceOrder() {
+		PropertyQuery all = PropertyQuery.builder().build();
+		assertEquals(3, agency.stream(all).limit(3).count());
+		assertEquals(0, agency.stream(PropertyQuery.builder().onStreet("no such street").build()).count());
+		assertEquals(new TreeSet<>(ids(agency.query(all))),
+				new TreeSet<>(agency.stream(all).map(Property::getPropertyId).toList()));
+
+		Agency large = new Agency("Large");
+		Address address = elmStreet();
+		for (int i = 0; i < 10_000; i++) {
+			large.addProperty(new Residence(1000.0 * (i % 100), address, 1 + i % 5, i % 2 == 0, Integer.toString(i, 36), false));
+		}
+		PropertyQuery pools = PropertyQuery.builder().with(Amenity.SWIMMING_POOL).priceBetween(10_000, 90_000).build();
+
+		List<Property> paged = new ArrayList<>();
+		String token = null;
+		do {
+			Page page = large.page(pools, 333, token);
+			assertTrue(page.properties().size() <= 333);
+			paged.addAll(page.properties());
+			token = page.continuationToken();
+		} while (token != null);
+
+		List<Property> expected = large.query(pools);
+		expected.sort(Comparator.comparingDouble(Property::getPriceUsd).thenComparing(Property::getPropertyId));
+		assertEquals(ids(expected), ids(paged));
+
+		// A token stays valid after the property it points at is removed
+		Page first = large.page(pools, 10, null);
+		large.removeProperty(first.properties().get(9).getPropertyId());
+		assertEquals(expected.get(10), large.page(pools, 10, first.continuationToken()).properties().get(0));
+
+		// Small candidate sets are sorted rather than walked in price order
+		PropertyQuery retail = PropertyQuery.builder().ofType(PropertyType.RETAIL).build();
+		Page cheapest = agency.page(retail, 1, null);
+		Page next = agency.page(retail, 1, cheapest.continuationToken());
+		assertTrue(cheapest.properties().get(0).getPriceUsd() <= next.properties().get(0).getPriceUsd());
+		assertTrue(agency.page(retail, 1, next.continuationToken()).properties().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> agency.page(all, 0, null));
+		assertThrows(IllegalArgumentException.class, () -> agency.page(all, 10, "not a token"));
+	}
+
+	@Test
+	void testTopKMatchesFullSort() {
+		Agency large = new Agency("Large");
+		Address address = elmStreet();
+		for (int i = 0; i < 10_000; i++) {
+			double price = 1000.0 * ((i * 7919) % 500);
+			large.addProperty(i % 3 == 0 ? new Commercial(price, address, Integer.toString(i, 36), i % 2 == 0, i % 5 == 0)
+					: new Residence(price, address, 1 + i % 5, i % 4 == 0, Integer.toString(i, 36), false));
+		}
+		Comparator<Property> byPrice = Comparator.comparingDouble(Property::getPriceUsd).thenComparing(Property::getPropertyId);
+
+		for (Agency source : List.of(agency, large)) {
+			for (PropertyQuery query : List.of(PropertyQuery.builder().with(Amenity.SWIMMING_POOL).build(),
+					PropertyQuery.builder().with(Amenity.HIGHWAY_ACCESS).priceBetween(100_000, 300_000).build(),
+					PropertyQuery.builder().build())) {
+				List<Property> sorted = source.query(query);
+				sorted.sort(byPrice);
+				int k = Math.min(10, sorted.size());
+
+				assertEquals(ids(sorted.subList(0, k)), ids(source.getCheapest(query, 10)));
+				sorted.sort(byPrice.reversed());
+				assertEquals(ids(sorted.subList(0, k)), ids(source.getMostExpensive(query, 10)));
+			}
+		}
+
+		Comparator<Property> byId = Comparator.comparing(Property::getPropertyId);
+		List<Property> residences = large.getPropertiesOfType(PropertyType.RESIDENCE);
+		residences.sort(byId);
+		assertEquals(ids(residences.subList(0, 5)),
+				ids(large.getTop(PropertyQuery.builder().ofType(PropertyType.RESIDENCE).build(), 5, byId)));
+		assertThrows(IllegalArgumentException.class, () -> agency.getCheapest(PropertyQuery.builder().build(), 0));
+
+		// A k larger than the result reserves no room for matches which never come
+		assertEquals(List.of(1, 2, 3), TopK.select(List.of(3, 1, 2), x -> true, Integer.MAX_VALUE, Comparator.<Integer>naturalOrder()));
+		assertEquals(12, agency.getCheapest(PropertyQuery.builder().build(), Integer.MAX_VALUE).size());
+		assertEquals(12, agency.getTop(PropertyQuery.builder().build(), Integer.MAX_VALUE, byId).size());
+	}
+
+	@Test
+	void testQueryCacheInvalidatesByTypeEpoch() {
+		Agency cached = new Agency("Cached");
+		agency.getProperties().forEach(cached::addProperty);
+		Retail shop = new Retail(1000.0, elmStreet(), "shop1", 500, false);
+		cached.addProperty(shop);
+		cached.setQueryCacheCapacity(2);
+		QueryCache cache = cached.getQueryCache();
+
+		PropertyQuery retail = PropertyQuery.builder().ofType(PropertyType.RETAIL).build();
+		PropertyQuery pools = PropertyQuery.builder().with(Amenity.SWIMMING_POOL).build();
+		PropertyQuery all = PropertyQuery.builder().build();
+
+		ArrayList<Property> first = cached.query(retail);
+		first.clear();
+		assertEquals(3, cached.query(PropertyQuery.builder().ofType(PropertyType.RETAIL).build()).size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// A change to a residence leaves the retail result current but not the untyped one
+		cached.query(all);
+		long residenceEpoch = cached.getModificationCount(PropertyType.RESIDENCE);
+		cached.removeProperty("9000a");
+		assertTrue(cached.getModificationCount(PropertyType.RESIDENCE) > residenceEpoch);
+		assertEquals(3, cached.query(retail).size());
+		assertEquals(12, cached.query(all).size());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getInvalidationCount());
+
+		// Repricing a retail listing in place invalidates the retail result
+		shop.setPriceUsd(2000.0);
+		cached.query(retail);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getInvalidationCount());
+
+		cached.query(pools);
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(2, cache.size());
+		assertEquals(cache.getHitCount(), cached.getQueryCache().getHitCount());
+
+		cached.setQueryCacheCapacity(0);
+		assertNull(cached.getQueryCache());
+		assertEquals(3, cached.query(retail).size());
+		assertThrows(IllegalArgumentException.class, () -> cached.setQueryCacheCapacity(-1));
+	}
+
+	private static List<String> ids(List<Property> properties) {
+		List<String> ids = new ArrayList<>();
+		for (Property property : properties) {
+			ids.add(property.getPropertyId());
+		}
+		return ids;
+	}
+
+	private static HttpResponse<String> get(HttpClient client, String uri) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(uri)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+
 }